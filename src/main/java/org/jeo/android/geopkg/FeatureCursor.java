@@ -46,7 +46,10 @@ public class FeatureCursor extends Cursor<Feature> {
                     Class t = fld.getType();
                     Object obj = null;
     
-                    if (Geometry.class.isAssignableFrom(t)) {
+                    if (cursor.isNull(i)) {
+                        obj = null;
+                    }
+                    else if (Geometry.class.isAssignableFrom(t)) {
                         obj = geomReader.read(cursor.getBlob(i));
                     }
                     else if (Long.class.equals(t)) {
@@ -26,6 +26,7 @@ import org.jeo.data.TilePyramidBuilder;
 import org.jeo.data.VectorData;
 import org.jeo.data.Workspace;
 import org.jeo.feature.Feature;
+import org.jeo.feature.Field;
 import org.jeo.feature.Schema;
 import org.jeo.feature.SchemaBuilder;
 import org.jeo.filter.Filter;
@@ -60,7 +61,8 @@ public class GeoPkgWorkspace implements Workspace, FileData {
     static final String TILE_MATRIX_METADATA = "tile_matrix_metadata";
 
     /** date format */
-    static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-mm-dd'T'HH:MM:ss.SSS'Z'");
+    static final SimpleDateFormat DATE_FORMAT =
+        new SimpleDateFormat("yyyy-mm-dd'T'HH:MM:ss.SSS'Z'");
     static {
         DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("GMT"));
     }
@@ -170,9 +172,31 @@ public class GeoPkgWorkspace implements Workspace, FileData {
     }
 
     org.jeo.data.Cursor<Feature> cursor(FeatureEntry entry, Query q) throws IOException {
-        //TODO: selective attributes
+        SQL sql = new SQL("SELECT ");
 
-        SQL sql = new SQL("SELECT * FROM ").name(entry.getTableName());
+        Collection<String> fields = q.getFields();
+        if (fields == null || fields.isEmpty()) {
+            sql.add("*");
+        }
+        else {
+            // select nulls for unrequested columns to keep the column order of the schema
+            boolean first = true;
+            for (Field fld : schema(entry).getFields()) {
+                if (!first) {
+                    sql.add(", ");
+                }
+                first = false;
+
+                String col = fld.getName();
+                if (fields.contains(col) || col.equals(entry.getGeometryColumn())) {
+                    sql.name(col);
+                }
+                else {
+                    sql.add("NULL AS ").name(col);
+                }
+            }
+        }
+        sql.add(" FROM ").name(entry.getTableName());
 
         QueryPlan qp = new QueryPlan(q);
         encodeQuery(sql, q, qp);
@@ -185,7 +209,9 @@ public class GeoPkgWorkspace implements Workspace, FileData {
             GeoPkgFilterSQLEncoder sqlfe = new GeoPkgFilterSQLEncoder();
             sqlfe.setPrepared(false);
             try {
-                sql.add(" WHERE ").add(sqlfe.encode(q.getFilter(), null));
+                // encode first so a failure leaves the statement untouched
+                String where = sqlfe.encode(q.getFilter(), null);
+                sql.add(" WHERE ").add(where);
                 qp.filtered();
             }
             catch(Exception e) {
@@ -0,0 +1,357 @@
+package org.jeo.android.graphics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateList;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Clips geometries to a rectangle.
+ * <p>
+ * Lines are clipped segment by segment with the Liang-Barsky algorithm, polygon rings with the
+ * Sutherland-Hodgman algorithm. Unlike a full JTS intersection the result is only intended
+ * for drawing, polygons clipped this way may contain degenerate edges along the clip boundary and
+ * are not guaranteed to be valid. In return clipping is cheap and never fails on invalid input.
+ * </p>
+ * <p>
+ * Geometries that fall completely within the rectangle are returned as is. Instances are not
+ * thread safe.
+ * </p>
+ */
+public class Clipper {
+
+    Envelope bounds;
+    double xmin, ymin, xmax, ymax;
+
+    /** segment clipping parameters */
+    double t0, t1;
+
+    /** ring clipping buffers */
+    double[] xs = new double[64], ys = new double[64];
+    double[] xb = new double[64], yb = new double[64];
+    int n;
+
+    public Clipper(Envelope bounds) {
+        this.bounds = bounds;
+        xmin = bounds.getMinX();
+        ymin = bounds.getMinY();
+        xmax = bounds.getMaxX();
+        ymax = bounds.getMaxY();
+    }
+
+    /**
+     * The clip rectangle.
+     */
+    public Envelope getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Clips a geometry.
+     *
+     * @return The clipped geometry, the original geometry if it lies completely within the clip
+     * rectangle, or an empty geometry if it lies completely outside of it.
+     */
+    public Geometry clip(Geometry g) {
+        Envelope e = g.getEnvelopeInternal();
+        if (bounds.contains(e)) {
+            return g;
+        }
+
+        GeometryFactory gf = g.getFactory();
+        if (!bounds.intersects(e)) {
+            return gf.createGeometryCollection(new Geometry[0]);
+        }
+
+        if (g instanceof Point) {
+            // point with envelope intersecting bounds is inside
+            return g;
+        }
+        if (g instanceof MultiPoint) {
+            List<Point> points = new ArrayList<Point>();
+            for (int i = 0; i < g.getNumGeometries(); i++) {
+                Point p = (Point) g.getGeometryN(i);
+                if (bounds.intersects(p.getCoordinate())) {
+                    points.add(p);
+                }
+            }
+            return gf.createMultiPoint(points.toArray(new Point[points.size()]));
+        }
+        if (g instanceof LineString) {
+            List<LineString> lines = new ArrayList<LineString>();
+            clip((LineString) g, lines);
+            return lines.size() == 1 ? lines.get(0) :
+                gf.createMultiLineString(lines.toArray(new LineString[lines.size()]));
+        }
+        if (g instanceof MultiLineString) {
+            List<LineString> lines = new ArrayList<LineString>();
+            for (int i = 0; i < g.getNumGeometries(); i++) {
+                clip((LineString) g.getGeometryN(i), lines);
+            }
+            return gf.createMultiLineString(lines.toArray(new LineString[lines.size()]));
+        }
+        if (g instanceof Polygon) {
+            Polygon p = clip((Polygon) g);
+            return p != null ? p : gf.createPolygon(null, null);
+        }
+        if (g instanceof MultiPolygon) {
+            List<Polygon> polys = new ArrayList<Polygon>();
+            for (int i = 0; i < g.getNumGeometries(); i++) {
+                Polygon p = clip((Polygon) g.getGeometryN(i));
+                if (p != null) {
+                    polys.add(p);
+                }
+            }
+            return gf.createMultiPolygon(polys.toArray(new Polygon[polys.size()]));
+        }
+        if (g instanceof GeometryCollection) {
+            List<Geometry> geoms = new ArrayList<Geometry>();
+            for (int i = 0; i < g.getNumGeometries(); i++) {
+                Geometry c = clip(g.getGeometryN(i));
+                if (!c.isEmpty()) {
+                    geoms.add(c);
+                }
+            }
+            return gf.createGeometryCollection(geoms.toArray(new Geometry[geoms.size()]));
+        }
+
+        throw new IllegalArgumentException("Unsupported geometry: " + g.getGeometryType());
+    }
+
+    void clip(LineString line, List<LineString> parts) {
+        Envelope e = line.getEnvelopeInternal();
+        if (bounds.contains(e)) {
+            parts.add(line);
+            return;
+        }
+        if (!bounds.intersects(e)) {
+            return;
+        }
+
+        GeometryFactory gf = line.getFactory();
+        CoordinateSequence cs = line.getCoordinateSequence();
+
+        CoordinateList part = null;
+        for (int i = 0; i < cs.size() - 1; i++) {
+            double x0 = cs.getX(i), y0 = cs.getY(i);
+            double x1 = cs.getX(i+1), y1 = cs.getY(i+1);
+
+            if (!clip(x0, y0, x1, y1)) {
+                // segment outside, finish current part
+                part = flush(part, parts, gf);
+                continue;
+            }
+
+            double dx = x1 - x0, dy = y1 - y0;
+            if (part == null) {
+                part = new CoordinateList();
+                part.add(new Coordinate(x0 + t0*dx, y0 + t0*dy), false);
+            }
+            part.add(new Coordinate(x0 + t1*dx, y0 + t1*dy), false);
+
+            if (t1 < 1) {
+                // segment leaves the rectangle
+                part = flush(part, parts, gf);
+            }
+        }
+        flush(part, parts, gf);
+    }
+
+    CoordinateList flush(CoordinateList part, List<LineString> parts, GeometryFactory gf) {
+        if (part != null && part.size() > 1) {
+            parts.add(gf.createLineString(part.toCoordinateArray()));
+        }
+        return null;
+    }
+
+    /**
+     * Clips a segment with Liang-Barsky, setting {@link #t0} and {@link #t1} to the parametric
+     * positions of the clipped end points.
+     *
+     * @return False if the segment lies outside the rectangle.
+     */
+    boolean clip(double x0, double y0, double x1, double y1) {
+        t0 = 0;
+        t1 = 1;
+
+        double dx = x1 - x0, dy = y1 - y0;
+        return edge(-dx, x0 - xmin) && edge(dx, xmax - x0) &&
+            edge(-dy, y0 - ymin) && edge(dy, ymax - y0);
+    }
+
+    boolean edge(double p, double q) {
+        if (p == 0) {
+            // parallel to edge
+            return q >= 0;
+        }
+
+        double r = q / p;
+        if (p < 0) {
+            if (r > t1) {
+                return false;
+            }
+            if (r > t0) {
+                t0 = r;
+            }
+        }
+        else {
+            if (r < t0) {
+                return false;
+            }
+            if (r < t1) {
+                t1 = r;
+            }
+        }
+        return true;
+    }
+
+    Polygon clip(Polygon poly) {
+        Envelope e = poly.getEnvelopeInternal();
+        if (bounds.contains(e)) {
+            return poly;
+        }
+        if (!bounds.intersects(e)) {
+            return null;
+        }
+
+        GeometryFactory gf = poly.getFactory();
+
+        LinearRing shell = clip(poly.getExteriorRing(), gf);
+        if (shell == null) {
+            return null;
+        }
+
+        List<LinearRing> holes = new ArrayList<LinearRing>();
+        for (int i = 0; i < poly.getNumInteriorRing(); i++) {
+            LinearRing hole = clip(poly.getInteriorRingN(i), gf);
+            if (hole != null) {
+                holes.add(hole);
+            }
+        }
+
+        return gf.createPolygon(shell, holes.toArray(new LinearRing[holes.size()]));
+    }
+
+    LinearRing clip(LineString ring, GeometryFactory gf) {
+        Envelope e = ring.getEnvelopeInternal();
+        if (bounds.contains(e)) {
+            return (LinearRing) ring;
+        }
+        if (!bounds.intersects(e)) {
+            return null;
+        }
+
+        // load the ring, dropping the closing point
+        CoordinateSequence cs = ring.getCoordinateSequence();
+        n = 0;
+        for (int i = 0; i < cs.size() - 1; i++) {
+            add(cs.getX(i), cs.getY(i));
+        }
+
+        // clip against each edge in turn
+        for (int edge = 0; edge < 4 && n > 0; edge++) {
+            clipRing(edge);
+        }
+
+        if (n < 3) {
+            return null;
+        }
+
+        Coordinate[] coords = new Coordinate[n+1];
+        for (int i = 0; i < n; i++) {
+            coords[i] = new Coordinate(xs[i], ys[i]);
+        }
+        coords[n] = new Coordinate(coords[0]);
+        return gf.createLinearRing(coords);
+    }
+
+    /**
+     * Single Sutherland-Hodgman pass of the current ring against one edge, 0 = left, 1 = right,
+     * 2 = bottom, 3 = top.
+     */
+    void clipRing(int edge) {
+        // swap input into the secondary buffers
+        double[] inx = xs, iny = ys;
+        int m = n;
+        xs = xb; ys = yb;
+        xb = inx; yb = iny;
+        n = 0;
+
+        double px = inx[m-1], py = iny[m-1];
+        boolean pin = inside(px, py, edge);
+
+        for (int i = 0; i < m; i++) {
+            double cx = inx[i], cy = iny[i];
+            boolean cin = inside(cx, cy, edge);
+
+            if (cin) {
+                if (!pin) {
+                    intersect(px, py, cx, cy, edge);
+                }
+                add(cx, cy);
+            }
+            else if (pin) {
+                intersect(px, py, cx, cy, edge);
+            }
+
+            px = cx; py = cy;
+            pin = cin;
+        }
+    }
+
+    boolean inside(double x, double y, int edge) {
+        switch(edge) {
+        case 0: return x >= xmin;
+        case 1: return x <= xmax;
+        case 2: return y >= ymin;
+        default: return y <= ymax;
+        }
+    }
+
+    void intersect(double x0, double y0, double x1, double y1, int edge) {
+        double x, y;
+        switch(edge) {
+        case 0:
+            x = xmin;
+            y = y0 + (y1 - y0) * (xmin - x0) / (x1 - x0);
+            break;
+        case 1:
+            x = xmax;
+            y = y0 + (y1 - y0) * (xmax - x0) / (x1 - x0);
+            break;
+        case 2:
+            y = ymin;
+            x = x0 + (x1 - x0) * (ymin - y0) / (y1 - y0);
+            break;
+        default:
+            y = ymax;
+            x = x0 + (x1 - x0) * (ymax - y0) / (y1 - y0);
+        }
+        add(x, y);
+    }
+
+    void add(double x, double y) {
+        if (n == xs.length) {
+            double[] x2 = new double[n*2], y2 = new double[n*2];
+            System.arraycopy(xs, 0, x2, 0, n);
+            System.arraycopy(ys, 0, y2, 0, n);
+            xs = x2; ys = y2;
+        }
+        xs[n] = x;
+        ys[n] = y;
+        n++;
+    }
+}
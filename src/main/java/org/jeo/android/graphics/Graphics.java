@@ -31,6 +31,8 @@ import static org.jeo.map.CartoCSS.TEXT_HALO_FILL;
 import static org.jeo.map.CartoCSS.TEXT_HALO_RADIUS;
 import static org.jeo.map.CartoCSS.TEXT_SIZE;
 
+import java.util.EnumMap;
+
 import org.jeo.data.Tile;
 import org.jeo.feature.Feature;
 import org.jeo.geom.CoordinatePath;
@@ -66,8 +68,21 @@ import android.graphics.Paint.Style;
  */
 public class Graphics {
 
+    /** label halo rendering mode, one of {@link #HALO_FAST} or {@link #HALO_BLUR} */
+    public static final String TEXT_HALO_RASTERIZER = "text-halo-rasterizer";
+
+    /** halo drawn by stroking the text outline */
+    public static final String HALO_FAST = "fast";
+
+    /** halo drawn as a blurred shadow */
+    public static final String HALO_BLUR = "blur";
+
     static Logger LOG = LoggerFactory.getLogger(Graphics.class);
 
+    /** shared transfer modes */
+    static final EnumMap<PorterDuff.Mode, PorterDuffXfermode> PD_MODES = 
+        new EnumMap<PorterDuff.Mode, PorterDuffXfermode>(PorterDuff.Mode.class);
+
     public static Paint paint(Object obj, Rule rule) {
         Paint p = new Paint();
         if (rule.bool(obj, "anti-alias", true)) {
@@ -83,7 +98,8 @@ public class Graphics {
         p.setTextAlign(align(rule.string(obj, TEXT_ALIGN, "left")));
 
         RGB haloColor = rule.color(obj, TEXT_HALO_FILL, null);
-        if (haloColor != null) {
+        if (haloColor != null && HALO_BLUR.equalsIgnoreCase(
+            rule.string(obj, TEXT_HALO_RASTERIZER, HALO_FAST))) {
            float radius = rule.number(obj, TEXT_HALO_RADIUS, 0f);
            p.setShadowLayer(radius, 0f, 0f, color(haloColor));
         }
@@ -91,6 +107,36 @@ public class Graphics {
         return p;
     }
 
+    /**
+     * Creates the paint for a label halo, drawn by stroking the outline of the text.
+     * <p>
+     * Returns <code>null</code> if the rule specifies no halo, or specifies a blurred halo with
+     * <tt>text-halo-rasterizer: blur</tt> in which case the halo is a shadow layer of the 
+     * label paint, see {@link #labelPaint(Object, Rule)}.
+     * </p>
+     */
+    public static Paint haloPaint(Object obj, Rule rule) {
+        RGB haloColor = rule.color(obj, TEXT_HALO_FILL, null);
+        if (haloColor == null || HALO_BLUR.equalsIgnoreCase(
+            rule.string(obj, TEXT_HALO_RASTERIZER, HALO_FAST))) {
+            return null;
+        }
+
+        float radius = rule.number(obj, TEXT_HALO_RADIUS, 0f);
+        if (radius <= 0f) {
+            return null;
+        }
+
+        Paint p = paint(obj, rule);
+        p.setColor(color(haloColor));
+        p.setTextSize(rule.number(obj, TEXT_SIZE, 10f));
+        p.setTextAlign(align(rule.string(obj, TEXT_ALIGN, "left")));
+        p.setStyle(Paint.Style.STROKE);
+        p.setStrokeWidth(2 * radius);
+        p.setStrokeJoin(Paint.Join.ROUND);
+        return p;
+    }
+
     public static Paint markFillPaint(Object obj, Rule rule) {
         //TODO: marker type
         //String type = rule.string(f, MARKER_TYPE, "circle");
@@ -324,7 +370,17 @@ public class Graphics {
     public static PorterDuffXfermode pdMode(String compOp) {
         String pd = compOp.replace("-", "_").toUpperCase();
         try {
-            return new PorterDuffXfermode(PorterDuff.Mode.valueOf(pd));
+            PorterDuff.Mode mode = PorterDuff.Mode.valueOf(pd);
+
+            // xfermodes are immutable, share them
+            synchronized (PD_MODES) {
+                PorterDuffXfermode xfer = PD_MODES.get(mode);
+                if (xfer == null) {
+                    xfer = new PorterDuffXfermode(mode);
+                    PD_MODES.put(mode, xfer);
+                }
+                return xfer;
+            }
         }
         catch(IllegalArgumentException e) {
             LOG.debug("Unsupported composition operation: " + compOp);
@@ -370,10 +426,15 @@ public class Graphics {
     }
     
     public static RectF rectFromCenter(PointF p, float width, float height) {
+        return rectFromCenter(p, width, height, new RectF());
+    }
+
+    public static RectF rectFromCenter(PointF p, float width, float height, RectF r) {
         float left = p.x - width/2f;
         float top = p.y - height/2f;
 
-        return new RectF(left, top, left + width, top + height);
+        r.set(left, top, left + width, top + height);
+        return r;
     }
     
     public static RectF rectFromBottomLeft(PointF p, float width, float height) {
@@ -0,0 +1,181 @@
+package org.jeo.android.graphics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.Align;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+/**
+ * Caches point label text, along with its halo, rendered into small bitmaps.
+ * <p>
+ * The halo is drawn by stroking the outline of the text with the halo paint, see
+ * {@link Graphics#haloPaint(Object, org.jeo.map.Rule)}, and the text drawn over it. Drawing a
+ * label is then a single bitmap blit, and labels with the same text and style drawn over
+ * multiple frames are rasterized once. The least recently used images are evicted once the
+ * cache holds {@link #MAX_IMAGES} images. Evicted images are not recycled since they may still
+ * be referenced by drawing commands of the current frame, for instance on a hardware
+ * accelerated canvas, they are left to be garbage collected.
+ * </p>
+ * <p>
+ * Instances are not thread safe.
+ * </p>
+ */
+public class HaloCache {
+
+    /** maximum number of cached images */
+    static final int MAX_IMAGES = 256;
+
+    /**
+     * Image key.
+     */
+    static class Key {
+        String text;
+        int fill, halo;
+        float size, width;
+        Typeface typeface;
+        boolean antiAlias;
+
+        Key set(String text, Paint fill, Paint halo) {
+            this.text = text;
+            this.fill = fill.getColor();
+            this.halo = halo.getColor();
+            this.size = fill.getTextSize();
+            this.width = halo.getStrokeWidth();
+            this.typeface = fill.getTypeface();
+            this.antiAlias = fill.isAntiAlias();
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = text.hashCode();
+            h = 31 * h + fill;
+            h = 31 * h + halo;
+            h = 31 * h + Float.floatToIntBits(size);
+            h = 31 * h + Float.floatToIntBits(width);
+            h = 31 * h + (typeface != null ? typeface.hashCode() : 0);
+            return 31 * h + (antiAlias ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) obj;
+            return text.equals(k.text) && fill == k.fill && halo == k.halo && size == k.size &&
+                width == k.width && antiAlias == k.antiAlias &&
+                (typeface == null ? k.typeface == null : typeface.equals(k.typeface));
+        }
+    }
+
+    /**
+     * Rendered label.
+     */
+    public static class Image {
+        Bitmap bitmap;
+
+        /** offset of the image from the text origin, and advance width of the text */
+        float dx, dy, advance;
+
+        /**
+         * The label image.
+         */
+        public Bitmap getBitmap() {
+            return bitmap;
+        }
+
+        /**
+         * Computes the left of the image for text drawn at the specified x with the specified
+         * alignment, see {@link Canvas#drawText(String, float, float, Paint)}.
+         */
+        public float left(float x, Align align) {
+            switch(align) {
+            case CENTER:
+                x -= advance / 2f;
+                break;
+            case RIGHT:
+                x -= advance;
+                break;
+            default:
+            }
+            return x + dx;
+        }
+
+        /**
+         * Computes the top of the image for text drawn at the specified baseline.
+         */
+        public float top(float y) {
+            return y + dy;
+        }
+    }
+
+    Map<Key,Image> images = new LinkedHashMap<Key,Image>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key,Image> eldest) {
+            return size() > MAX_IMAGES;
+        }
+    };
+
+    /** scratch key for lookups */
+    Key key = new Key();
+
+    /**
+     * Returns the image for a label, rendering it if need be.
+     *
+     * @param text The label text.
+     * @param fill The text paint.
+     * @param halo The halo paint.
+     */
+    public Image image(String text, Paint fill, Paint halo) {
+        Image img = images.get(key.set(text, fill, halo));
+        if (img == null) {
+            img = render(text, fill, halo);
+            images.put(new Key().set(text, fill, halo), img);
+        }
+        return img;
+    }
+
+    Image render(String text, Paint fill, Paint halo) {
+        // render left aligned, alignment is applied when the image is drawn
+        Paint f = new Paint(fill);
+        f.setTextAlign(Align.LEFT);
+        Paint h = new Paint(halo);
+        h.setTextAlign(Align.LEFT);
+
+        Rect b = new Rect();
+        f.getTextBounds(text, 0, text.length(), b);
+
+        int pad = (int) Math.ceil(h.getStrokeWidth() / 2f) + 1;
+
+        Image img = new Image();
+        img.bitmap = Bitmap.createBitmap(Math.max(b.width(), 1) + 2 * pad,
+            Math.max(b.height(), 1) + 2 * pad, Bitmap.Config.ARGB_8888);
+        img.dx = b.left - pad;
+        img.dy = b.top - pad;
+        img.advance = f.measureText(text);
+
+        Canvas canvas = new Canvas(img.bitmap);
+        canvas.drawText(text, -img.dx, -img.dy, h);
+        canvas.drawText(text, -img.dx, -img.dy, f);
+        return img;
+    }
+
+    /**
+     * Discards all cached images, recycling them.
+     * <p>
+     * Must not be called while a frame drawn with the images may still be pending.
+     * </p>
+     */
+    public void clear() {
+        for (Image img : images.values()) {
+            img.bitmap.recycle();
+        }
+        images.clear();
+    }
+}
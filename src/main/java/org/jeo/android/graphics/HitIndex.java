@@ -0,0 +1,192 @@
+package org.jeo.android.graphics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jeo.feature.Feature;
+
+/**
+ * Index of the features drawn in a frame, used to identify the features at a point on screen.
+ * <p>
+ * The canvas space envelope of each drawn feature is recorded with {@link #add(Feature, float,
+ * float, float, float)} in drawing order. Once the frame is complete {@link #build(int, int)}
+ * packs the entries into a uniform grid of {@link #CELL_SIZE} pixel cells stored in flat arrays.
+ * {@link #identify(float, float, float)} then answers queries without touching the data source,
+ * and reflects exactly what was drawn.
+ * </p>
+ * <p>
+ * Instances are not thread safe.
+ * </p>
+ */
+public class HitIndex {
+
+    /** grid cell size, in pixels */
+    static final int CELL_SIZE = 32;
+
+    /** drawn features, and their envelopes as minx,miny,maxx,maxy */
+    Feature[] features = new Feature[256];
+    float[] boxes = new float[4 * 256];
+    int size;
+
+    /** grid dimensions */
+    int cols, rows;
+
+    /** start of the entries of each cell, and the entries of all cells in drawing order */
+    int[] cells = new int[0];
+    int[] entries = new int[0];
+
+    /**
+     * Records a drawn feature.
+     */
+    public void add(Feature f, float minx, float miny, float maxx, float maxy) {
+        if (size == features.length) {
+            features = Arrays.copyOf(features, 2 * size);
+            boxes = Arrays.copyOf(boxes, 8 * size);
+        }
+
+        features[size] = f;
+        int i = 4 * size;
+        boxes[i] = minx;
+        boxes[i+1] = miny;
+        boxes[i+2] = maxx;
+        boxes[i+3] = maxy;
+        size++;
+    }
+
+    /**
+     * The number of features recorded.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Builds the grid over a canvas of the specified size.
+     */
+    public void build(int width, int height) {
+        cols = Math.max(1, (width + CELL_SIZE - 1) / CELL_SIZE);
+        rows = Math.max(1, (height + CELL_SIZE - 1) / CELL_SIZE);
+
+        // count entries per cell
+        int n = cols * rows;
+        if (cells.length < n + 1) {
+            cells = new int[n + 1];
+        }
+        else {
+            Arrays.fill(cells, 0, n + 1, 0);
+        }
+
+        for (int i = 0; i < size; i++) {
+            int j = 4 * i;
+            int x0 = col(boxes[j]), x1 = col(boxes[j+2]);
+            int y0 = row(boxes[j+1]), y1 = row(boxes[j+3]);
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    cells[y * cols + x + 1]++;
+                }
+            }
+        }
+
+        // offsets
+        for (int c = 0; c < n; c++) {
+            cells[c+1] += cells[c];
+        }
+        if (entries.length < cells[n]) {
+            entries = new int[cells[n]];
+        }
+
+        // fill, in drawing order
+        int[] next = Arrays.copyOf(cells, n);
+        for (int i = 0; i < size; i++) {
+            int j = 4 * i;
+            int x0 = col(boxes[j]), x1 = col(boxes[j+2]);
+            int y0 = row(boxes[j+1]), y1 = row(boxes[j+3]);
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    entries[next[y * cols + x]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Identifies the features drawn at a point.
+     *
+     * @param x The x canvas coordinate.
+     * @param y The y canvas coordinate.
+     * @param tolerance Distance in pixels from the point features may be.
+     *
+     * @return The features, topmost first.
+     */
+    public List<Feature> identify(float x, float y, float tolerance) {
+        List<Feature> result = new ArrayList<Feature>();
+        if (size == 0 || cols == 0) {
+            return result;
+        }
+
+        // collect matching entries, in any order
+        int[] hits = new int[8];
+        int n = 0;
+
+        int x0 = col(x - tolerance), x1 = col(x + tolerance);
+        int y0 = row(y - tolerance), y1 = row(y + tolerance);
+        for (int r = y0; r <= y1; r++) {
+            for (int c = x0; c <= x1; c++) {
+                int cell = r * cols + c;
+                for (int k = cells[cell]; k < cells[cell+1]; k++) {
+                    int i = entries[k];
+                    int j = 4 * i;
+                    if (x >= boxes[j] - tolerance && x <= boxes[j+2] + tolerance &&
+                        y >= boxes[j+1] - tolerance && y <= boxes[j+3] + tolerance) {
+                        if (n == hits.length) {
+                            hits = Arrays.copyOf(hits, 2 * n);
+                        }
+                        hits[n++] = i;
+                    }
+                }
+            }
+        }
+
+        // topmost first, dropping entries found in multiple cells and features drawn more than
+        // once
+        Arrays.sort(hits, 0, n);
+        for (int k = n-1; k >= 0; k--) {
+            if (k < n-1 && hits[k] == hits[k+1]) {
+                continue;
+            }
+
+            Feature f = features[hits[k]];
+            if (!contains(result, f)) {
+                result.add(f);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Discards all recorded features.
+     */
+    public void clear() {
+        Arrays.fill(features, 0, size, null);
+        size = 0;
+        cols = rows = 0;
+    }
+
+    int col(float x) {
+        return Math.max(0, Math.min(cols - 1, (int) Math.floor(x / CELL_SIZE)));
+    }
+
+    int row(float y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / CELL_SIZE)));
+    }
+
+    boolean contains(List<Feature> features, Feature f) {
+        for (int i = 0; i < features.size(); i++) {
+            if (features.get(i) == f) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
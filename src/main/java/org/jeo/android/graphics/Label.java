@@ -7,6 +7,8 @@ import org.jeo.feature.Feature;
 import org.jeo.geom.Envelopes;
 import org.jeo.map.Rule;
 
+import android.graphics.RectF;
+
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 
@@ -25,6 +27,16 @@ public abstract class Label {
     Geometry shape = null;
     Map<Object,Object> stuff; 
 
+    /** collision boxes in canvas space, and their bounds */
+    float[] boxes;
+    RectF extent;
+
+    /** last query of the label index to visit this label */
+    int stamp;
+
+    /** cached priority */
+    Comparable priority;
+
     public Label(String text, Rule rule, Feature feature, Geometry geom) {
         this.text = text;
         this.rule = rule;
@@ -96,22 +108,57 @@ public abstract class Label {
      * up the rule property "text-priority". 
      */
     public Comparable priority() {
-        return rule.eval(feature, "text-priority", Comparable.class, 1f);
+        if (priority == null) {
+            priority = rule.eval(feature, "text-priority", Comparable.class, 1f);
+        }
+        return priority;
     }
 
     /**
-     * The bounds of the label.
+     * The bounds of the label, in world coordinates.
+     */
+    public abstract Envelope bounds();
+
+    /**
+     * Sets the boxes used to determine if the label overlaps other labels, in canvas space.
      * <p>
-     * This bounds is used as the key for the label in the underlying spatial index.
+     * Each box is a rectangle, possibly rotated, specified by its four corners in order, ie. 
+     * 8 values per box. See {@link LabelIndex}.
      * </p>
      */
-    public abstract Envelope bounds();
+    public void setBoxes(float[] boxes) {
+        this.boxes = boxes;
+
+        float minx = Float.MAX_VALUE, miny = Float.MAX_VALUE;
+        float maxx = -Float.MAX_VALUE, maxy = -Float.MAX_VALUE;
+        for (int i = 0; i < boxes.length; i += 2) {
+            minx = Math.min(minx, boxes[i]);
+            maxx = Math.max(maxx, boxes[i]);
+            miny = Math.min(miny, boxes[i+1]);
+            maxy = Math.max(maxy, boxes[i+1]);
+        }
+        extent = new RectF(minx, miny, maxx, maxy);
+    }
+
+    /**
+     * The collision boxes of the label, see {@link #setBoxes(float[])}.
+     */
+    public float[] getBoxes() {
+        return boxes;
+    }
+
+    /**
+     * The canvas space bounds of the collision boxes of the label.
+     */
+    public RectF getExtent() {
+        return extent;
+    }
 
     /**
      * Sets the detailed shape of the label.
      * <p>
-     * This value is used when determining if two labels actually overlap even if the bounds 
-     * overlap.  
+     * This value is used when representing the label as a geometry, see 
+     * {@link LabelIndex#features()}. Overlap is determined from {@link #getBoxes()}.
      * </p>
      */
     public void setShape(Geometry shape) {
@@ -0,0 +1,239 @@
+package org.jeo.android.graphics;
+
+import java.util.HashMap;
+
+import org.jeo.feature.Feature;
+import org.jeo.map.Rule;
+import org.jeo.map.Viewport;
+import org.osgeo.proj4j.CoordinateReferenceSystem;
+
+import android.graphics.RectF;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Caches the layout of labels from one frame to the next.
+ * <p>
+ * Labels are keyed by the rule they originate from, their text, and the identity of their feature,
+ * being the feature id or when the feature has none the envelope of its geometry, or for labels of
+ * merged lines the envelope of the unclipped merged line, see {@link LineLabelMerger}. The cache
+ * holds the world space layout of each label, its anchor or path, so when the next frame is at the
+ * same scale labels need not be measured and sampled again, only their canvas space collision boxes
+ * are shifted by the distance panned. Labels that were placed in the previous frame and that lie
+ * entirely within the previously visible area keep their place without being checked for collisions
+ * again, only labels touching the newly exposed area are re-validated. This also keeps labels from
+ * flickering as the map is panned.
+ * </p>
+ * <p>
+ * Labels whose geometry was clipped to the view are laid out on the visible part of their
+ * feature, which changes as the map is panned. Line labels of such features are laid out again
+ * rather than restored, and that such labels did not fit is not cached.
+ * </p>
+ * <p>
+ * The cache is cleared when the scale or projection of the view changes. Only the labels of the
+ * last frame are retained.
+ * </p>
+ */
+public class LabelCache {
+
+    /** no cached layout */
+    public static final int MISS = 0;
+
+    /** cached label did not fit */
+    public static final int REJECTED = 1;
+
+    /** layout restored, label must be placed */
+    public static final int LAID_OUT = 2;
+
+    /** layout restored, label keeps its place */
+    public static final int KEPT = 3;
+
+    /**
+     * Label key.
+     */
+    static class Key {
+        Rule rule;
+        String text;
+        Object id;
+
+        Key(Label label) {
+            rule = label.getRule();
+            text = label.getText();
+
+            Feature f = label.getFeature();
+            id = f.getId();
+            if (label instanceof LineLabel && ((LineLabel) label).merged != null) {
+                // many labels may originate from the same feature
+                id = ((LineLabel) label).merged;
+            }
+            else if (id == null) {
+                Geometry g = f.geometry();
+                id = g != null ?
+                    g.getEnvelopeInternal() : label.getGeometry().getEnvelopeInternal();
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(rule) + text.hashCode()) + id.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) obj;
+            return rule == k.rule && text.equals(k.text) && id.equals(k.id);
+        }
+    }
+
+    /**
+     * Cached label.
+     */
+    static class Entry {
+        Label label;
+        boolean fits;
+        boolean placed;
+
+        Entry(Label label, boolean fits, boolean placed) {
+            this.label = label;
+            this.fits = fits;
+            this.placed = placed;
+        }
+    }
+
+    /** labels of the previous frame, and of the current frame */
+    HashMap<Key,Entry> prev = new HashMap<Key, Entry>();
+    HashMap<Key,Entry> curr = new HashMap<Key, Entry>();
+
+    /** relative tolerance when comparing scales */
+    static final double SCALE_TOL = 1e-9;
+
+    /** view state of the current frame */
+    double scaleX, scaleY, translateX, translateY;
+    CoordinateReferenceSystem crs;
+    Envelope bounds = new Envelope();
+
+    /** canvas offset from the previous frame, and the previously visible canvas area */
+    float dx, dy;
+    RectF visible = new RectF();
+
+    /**
+     * Starts a new frame.
+     */
+    public void update(Viewport view) {
+        HashMap<Key,Entry> tmp = prev;
+        prev = curr;
+        curr = tmp;
+        curr.clear();
+
+        if (!same(view.scaleX(), scaleX) || !same(view.scaleY(), scaleY) || 
+            view.getCRS() != crs) {
+            prev.clear();
+        }
+
+        dx = (float) (view.translateX() - translateX);
+        dy = (float) (view.translateY() - translateY);
+        visible.set(dx, dy, dx + view.getWidth(), dy + view.getHeight());
+
+        scaleX = view.scaleX();
+        scaleY = view.scaleY();
+        translateX = view.translateX();
+        translateY = view.translateY();
+        crs = view.getCRS();
+        bounds = new Envelope(view.getBounds());
+    }
+
+    /**
+     * Discards all cached labels.
+     */
+    public void clear() {
+        prev.clear();
+        curr.clear();
+        crs = null;
+    }
+
+    /**
+     * Restores the layout of a label from the previous frame.
+     *
+     * @return One of {@link #MISS}, {@link #REJECTED}, {@link #LAID_OUT}, or {@link #KEPT}.
+     */
+    public int restore(Label label) {
+        if (label instanceof LineLabel && clipped(label)) {
+            // lay out along the now visible part of the line
+            return MISS;
+        }
+
+        Entry e = prev.get(new Key(label));
+        if (e == null) {
+            return MISS;
+        }
+        if (!e.fits) {
+            return REJECTED;
+        }
+
+        Label l = e.label;
+        if (label instanceof PointLabel && l instanceof PointLabel) {
+            ((PointLabel) label).setAnchor(((PointLabel) l).getAnchor());
+            ((PointLabel) label).setBox(((PointLabel) l).getBox());
+        }
+        else if (label instanceof LineLabel && l instanceof LineLabel) {
+            ((LineLabel) label).setPath(((LineLabel) l).getPath());
+            ((LineLabel) label).setHeight(((LineLabel) l).getHeight());
+            label.setShape(l.shape);
+        }
+        else {
+            return MISS;
+        }
+
+        float[] boxes = l.getBoxes();
+        if (dx != 0 || dy != 0) {
+            boxes = boxes.clone();
+            for (int i = 0; i < boxes.length; i += 2) {
+                boxes[i] += dx;
+                boxes[i+1] += dy;
+            }
+        }
+        label.setBoxes(boxes);
+
+        return e.placed && visible.contains(label.getExtent()) ? KEPT : LAID_OUT;
+    }
+
+    /**
+     * Caches the layout of a label of the current frame.
+     *
+     * @param label The label.
+     * @param fits Whether the label could be laid out.
+     * @param placed Whether the label was placed.
+     */
+    public void put(Label label, boolean fits, boolean placed) {
+        if (!fits && clipped(label)) {
+            // may fit once more of the feature is visible
+            return;
+        }
+        curr.put(new Key(label), new Entry(label, fits, placed));
+    }
+
+    /**
+     * Determines if the geometry of a label was clipped to the view.
+     */
+    boolean clipped(Label label) {
+        if (label instanceof LineLabel && ((LineLabel) label).merged != null) {
+            return !bounds.contains(((LineLabel) label).merged);
+        }
+
+        // clipping returns geometries within the view as is
+        Geometry g = label.getFeature().geometry();
+        return g != null && label.getGeometry() != g;
+    }
+
+    /**
+     * Compares two scales with a relative tolerance, the scale of a view is recomputed when it is
+     * panned and may change slightly.
+     */
+    static boolean same(double s1, double s2) {
+        return Math.abs(s1 - s2) <= SCALE_TOL * Math.abs(s1);
+    }
+}
@@ -3,6 +3,8 @@ package org.jeo.android.graphics;
 import static org.jeo.map.CartoCSS.*;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 import org.jeo.data.VectorData;
@@ -11,36 +13,92 @@ import org.jeo.feature.Feature;
 import org.jeo.feature.ListFeature;
 import org.jeo.feature.Schema;
 
+import android.graphics.RectF;
+
 import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jts.index.quadtree.Quadtree;
 
 /**
  * Stores {@link Label} objects in a spatial index dealing with label overlapping.
- *  
+ * <p>
+ * Labels are indexed in canvas space by their collision boxes, see {@link Label#getBoxes()}, in
+ * a uniform grid of {@link #getCellSize()} pixel cells. Two labels overlap if any of their boxes 
+ * overlap, which is determined with a separating axis test on the (possibly rotated) boxes. 
+ * </p>
  * @author Justin Deoliveira, OpenGeo
- * 
- * TODO: use prepared geometries for overlap computation
  */
 public class LabelIndex {
 
-    Quadtree idx;
+    /** default grid cell size, in pixels */
+    public static final int DEFAULT_CELL_SIZE = 64;
+
+    int cellSize;
+
+    /** labels by grid cell */
+    HashMap<Long,List<Label>> grid;
+
+    /** all labels, in insertion order */
+    LinkedHashSet<Label> labels;
+
+    /** query stamp, used to visit labels spanning multiple cells once */
+    int stamp;
 
     public LabelIndex() {
-        idx = new Quadtree();
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    public LabelIndex(int cellSize) {
+        this.cellSize = cellSize;
+        grid = new HashMap<Long, List<Label>>();
+        labels = new LinkedHashSet<Label>();
+    }
+
+    /**
+     * The size of the grid cells, in pixels.
+     */
+    public int getCellSize() {
+        return cellSize;
     }
 
     /**
      * Queries the index for labels that overlap the specified label.
      */
     public List<Label> query(Label label) {
-        List<Label> labels = new ArrayList<Label>();
-        for (Label close : (List<Label>)idx.query(label.bounds())) {
-            if (close.shape().intersects(label.shape())) {
-                labels.add(close);
+        return query(label, false);
+    }
+
+    List<Label> query(Label label, boolean first) {
+        List<Label> result = new ArrayList<Label>();
+
+        RectF e = extent(label);
+        int x0 = cell(e.left), x1 = cell(e.right);
+        int y0 = cell(e.top), y1 = cell(e.bottom);
+
+        stamp++;
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                List<Label> cell = grid.get(key(x, y));
+                if (cell == null) {
+                    continue;
+                }
+
+                for (int i = 0; i < cell.size(); i++) {
+                    Label close = cell.get(i);
+                    if (close.stamp == stamp) {
+                        continue;
+                    }
+                    close.stamp = stamp;
+
+                    if (overlaps(close, label)) {
+                        result.add(close);
+                        if (first) {
+                            return result;
+                        }
+                    }
+                }
             }
         }
 
-        return labels;
+        return result;
     }
 
     /**
@@ -59,32 +117,84 @@ public class LabelIndex {
         boolean add = true;
 
         if (!allowOverlap(label)) {
-            for (Label overlap : query(label)) {
+            List<Label> overlaps = query(label);
+            for (Label overlap : overlaps) {
                 // conflict, examine priority
-                if (label.priority().compareTo(overlap.priority()) > 0) {
-                    // kick out existing label
-                    idx.remove(overlap.bounds(), overlap);
-                }
-                else {
+                if (label.priority().compareTo(overlap.priority()) <= 0) {
                     // existing label one, ignore this one
                     add = false;
                     break;
                 }
             }
+
+            if (add) {
+                // kick out existing labels
+                for (Label overlap : overlaps) {
+                    remove(overlap);
+                }
+            }
         }
 
         if (add) {
-            idx.insert(label.bounds(), label);
+            add(label);
         }
 
         return add;
     }
 
+    /**
+     * Places a label into the index only if it does not overlap any label already in the index.
+     * <p>
+     * Unlike {@link #insert(Label)} labels in the index are never removed, so when labels are
+     * placed in order of decreasing priority no work is wasted on labels that are later evicted,
+     * and the result does not depend on the order of the features the labels originate from. 
+     * </p>
+     * 
+     * @return True if the label was added to the index, otherwise false.
+     */
+    public boolean place(Label label) {
+        if (!allowOverlap(label) && !query(label, true).isEmpty()) {
+            return false;
+        }
+
+        add(label);
+        return true;
+    }
+
+    void add(Label label) {
+        RectF e = extent(label);
+        for (int x = cell(e.left); x <= cell(e.right); x++) {
+            for (int y = cell(e.top); y <= cell(e.bottom); y++) {
+                Long key = key(x, y);
+                List<Label> cell = grid.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<Label>(4);
+                    grid.put(key, cell);
+                }
+                cell.add(label);
+            }
+        }
+        labels.add(label);
+    }
+
+    void remove(Label label) {
+        RectF e = extent(label);
+        for (int x = cell(e.left); x <= cell(e.right); x++) {
+            for (int y = cell(e.top); y <= cell(e.bottom); y++) {
+                List<Label> cell = grid.get(key(x, y));
+                if (cell != null) {
+                    cell.remove(label);
+                }
+            }
+        }
+        labels.remove(label);
+    }
+
     /**
      * Returns all the labels in the index.
      */
     public Iterable<Label> all() {
-        return idx.queryAll();
+        return labels;
     }
 
     /**
@@ -110,4 +220,67 @@ public class LabelIndex {
     boolean allowOverlap(Label label) {
         return label.getRule().bool(label.getFeature(), TEXT_ALLOW_OVERLAP, false);
     }
+
+    RectF extent(Label label) {
+        RectF e = label.getExtent();
+        if (e == null) {
+            throw new IllegalStateException("Label has no collision boxes");
+        }
+        return e;
+    }
+
+    int cell(float v) {
+        return (int) Math.floor(v / cellSize);
+    }
+
+    static Long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    /**
+     * Determines if any of the boxes of two labels overlap.
+     */
+    static boolean overlaps(Label a, Label b) {
+        if (!RectF.intersects(a.getExtent(), b.getExtent())) {
+            return false;
+        }
+
+        float[] ab = a.getBoxes();
+        float[] bb = b.getBoxes();
+        for (int i = 0; i < ab.length; i += 8) {
+            for (int j = 0; j < bb.length; j += 8) {
+                if (overlaps(ab, i, bb, j)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Separating axis test for two rectangles, each specified by its four corners in order. 
+     */
+    static boolean overlaps(float[] a, int i, float[] b, int j) {
+        // the edges of a rectangle are the normals of its other edges, so the edge directions
+        // of both rectangles are the candidate separating axes
+        return !separates(a[i+2] - a[i], a[i+3] - a[i+1], a, i, b, j) && 
+               !separates(a[i+4] - a[i+2], a[i+5] - a[i+3], a, i, b, j) &&
+               !separates(b[j+2] - b[j], b[j+3] - b[j+1], a, i, b, j) && 
+               !separates(b[j+4] - b[j+2], b[j+5] - b[j+3], a, i, b, j);
+    }
+
+    static boolean separates(float ax, float ay, float[] a, int i, float[] b, int j) {
+        float amin = Float.MAX_VALUE, amax = -Float.MAX_VALUE;
+        float bmin = Float.MAX_VALUE, bmax = -Float.MAX_VALUE;
+        for (int k = 0; k < 8; k += 2) {
+            float p = a[i+k] * ax + a[i+k+1] * ay;
+            amin = Math.min(amin, p);
+            amax = Math.max(amax, p);
+
+            p = b[j+k] * ax + b[j+k+1] * ay;
+            bmin = Math.min(bmin, p);
+            bmax = Math.max(bmax, p);
+        }
+        return amax < bmin || bmax < amin;
+    }
 }
@@ -13,15 +13,12 @@ import static org.jeo.map.CartoCSS.TEXT_MIN_PADDING;
 
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.jeo.feature.Feature;
-import org.jeo.geom.GeomBuilder;
 import org.jeo.map.Rule;
 
 import android.graphics.Canvas;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PointF;
@@ -29,6 +26,7 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineSegment;
 import com.vividsolutions.jts.geom.LineString;
@@ -37,28 +35,66 @@ import com.vividsolutions.jts.geom.MultiLineString;
 public class Labeller {
 
     static final double DEFAULT_MAX_ANGLE_CHAR_DELTA = 22.5 * Math.PI/180.0;
-    static final double HALFPI = Math.PI/2.0;
+
+    /** key of the halo paint of a label, see {@link Label#put(Object, Object)} */
+    public static final String HALO = "halo";
+
+    /** maximum number of positions tried when placing a label along a line */
+    static final int MAX_LINE_PLACEMENTS = 8;
 
     Canvas canvas;
     TransformPipeline tx;
 
+    /** text measurements */
+    TextMetrics metrics;
+
+    /** rendered point labels with halos */
+    HaloCache halos;
+
+    /** scratch objects used during rendering */
+    PointF p0 = new PointF(), p1 = new PointF();
+
+    /** scratch objects used during line label layout */
+    Coordinate c = new Coordinate();
+    double[] glyphPoints = new double[64];
+
     public Labeller(Canvas canvas, TransformPipeline tx) {
+        this(canvas, tx, new TextMetrics(), new HaloCache());
+    }
+
+    public Labeller(Canvas canvas, TransformPipeline tx, TextMetrics metrics, HaloCache halos) {
         this.canvas = canvas;
         this.tx = tx;
+        this.metrics = metrics;
+        this.halos = halos;
     }
 
+    /**
+     * Lays out a label and inserts it into the label index, see {@link LabelIndex#insert(Label)}.
+     */
     public boolean layout(Label label, LabelIndex labels) {
+        return layout(label) && labels.insert(label);
+    }
+
+    /**
+     * Lays out a label, computing its position and collision boxes without inserting it into 
+     * a label index.
+     * 
+     * @return False if the label could not be laid out, for instance when it does not fit along 
+     *   its line.
+     */
+    public boolean layout(Label label) {
         if (label instanceof PointLabel) {
-            return layout((PointLabel)label, labels);
+            return layout((PointLabel)label);
         }
         else if (label instanceof LineLabel) {
-            return layout((LineLabel)label, labels);
+            return layout((LineLabel)label);
         }
         
         return false;
     }
 
-    boolean layout(PointLabel label, LabelIndex labels) {
+    boolean layout(PointLabel label) {
         String text = label.getText();
         Feature f = label.getFeature();
         Geometry g = label.getGeometry();
@@ -77,8 +113,7 @@ public class Labeller {
         Paint p = label.get(Paint.class, Paint.class);
 
         //compute bounds of this label
-        Rect b = new Rect();
-        p.getTextBounds(text, 0, text.length(), b);
+        Rect b = metrics.bounds(p, text);
 
         //padding
         float padding = rule.number(f, TEXT_MIN_PADDING, 0f);
@@ -89,8 +124,9 @@ public class Labeller {
         //label.setAnchor(new Coordinate(center.x,center.y));
         //label.setBox(envelope(rectFromBottomLeft(center, b.width(), b.height())));
 
-        RectF c = new RectF(b);
-        tx.getCanvasToWorld().mapRect(c);
+        // world space size
+        float res = resolution();
+        float cw = b.width() * res, ch = b.height() * res;
 
         centroid = tx.getCanvasToWorld().map(anchor);
         label.setAnchor(centroid);
@@ -98,22 +134,48 @@ public class Labeller {
         RectF box = null;
         switch(p.getTextAlign()) {
         case LEFT:
-            box = rectFromBottomLeft(point(centroid), c.width(), c.height());
+            box = rectFromBottomLeft(point(centroid), cw, ch);
             break;
         case CENTER:
-            box = rectFromBottomCenter(point(centroid), c.width(), c.height());
+            box = rectFromBottomCenter(point(centroid), cw, ch);
             break;
         case RIGHT:
-            box = rectFromBottomRight(point(centroid), c.width(), c.height());
+            box = rectFromBottomRight(point(centroid), cw, ch);
             break;
         }
 
         label.setBox(envelope(box));
 
-        return labels.insert(label);
+        // collision box, in canvas space
+        float w = b.width(), h = b.height();
+        float left = anchor.x;
+        switch(p.getTextAlign()) {
+        case CENTER:
+            left -= w / 2f;
+            break;
+        case RIGHT:
+            left -= w;
+            break;
+        default:
+        }
+        float top = anchor.y - h;
+        float bottom = anchor.y;
+
+        // stroked halos extend past the text by their radius
+        Paint halo = label.get(HALO, Paint.class);
+        if (halo != null) {
+            float r = halo.getStrokeWidth() / 2f;
+            left -= r;
+            top -= r;
+            w += 2 * r;
+            bottom += r;
+        }
+        label.setBoxes(new float[]{left, top, left + w, top, left + w, bottom, left, bottom});
+
+        return true;
     }
    
-    boolean layout(LineLabel label, LabelIndex labels) {
+    boolean layout(LineLabel label) {
         String txt = label.getText();
         Rule rule = label.getRule();
         Feature f = label.getFeature();
@@ -121,164 +183,183 @@ public class Labeller {
 
         LineString line = null;
         if (g instanceof MultiLineString) {
-            //TODO: handle multiple lines
-            if (g.getNumGeometries() == 1) {
-                line = (LineString) g.getGeometryN(0);
+            // label the longest line, see LineLabelMerger for joining connected lines
+            for (int i = 0; i < g.getNumGeometries(); i++) {
+                LineString l = (LineString) g.getGeometryN(i);
+                if (line == null || l.getLength() > line.getLength()) {
+                    line = l;
+                }
             }
         }
         else {
             line = (LineString) g;
         }
-        if (line == null) {
+        if (line == null || line.getNumPoints() < 2) {
             return false;
         }
 
         Paint p = label.get(Paint.class, Paint.class);
 
         // compute the bounds of the label with no rotation
-        Rect r = new Rect();
-        p.getTextBounds(txt, 0, txt.length(), r);
+        Rect r = metrics.bounds(p, txt);
 
         // map it to world coordinates
-        RectF bounds = new RectF(r);
-        tx.getCanvasToWorld().mapRect(bounds);
+        float res = resolution();
+        RectF bounds = new RectF(0, 0, r.width() * res, r.height() * res);
+
+        // sample the line from its end if it runs right to left, so the text reads left to right
+        CoordinateSequence cs = line.getCoordinateSequence();
+        LineSampler sampler = new LineSampler(cs, cs.getX(0) > cs.getX(cs.size()-1));
 
         // ignore label if its too long for the line
-        
-        if (line.getLength() < bounds.width()) {
+        if (!sampler.fits(0, bounds.width())) {
             // ignore this label
             return false;
         }
 
-        // reverse
-        if (line.getPointN(0).getX() > line.getPointN(line.getNumPoints()-1).getX()) {
-            line = (LineString) line.reverse();
-        }
-
-        // compute width of individual letters
-        float[] widths = new float[txt.length()];
-        p.getTextWidths(txt, widths);
+        //TODO: properly figure out spacing between letters
+        float space = res;
 
-        // map the widths to world space
-        float sum = 0;
+        // compute width of individual letters, in world space
+        float[] glyphs = metrics.widths(p, txt);
+        float[] widths = new float[glyphs.length];
+        double total = -space;
         for (int i = 0; i < widths.length; i++) {
-            RectF s = new RectF(0, 0, widths[i], 1);
-            tx.getCanvasToWorld().mapRect(s);
-
-            widths[i] = s.width();
-            sum += s.width();
+            widths[i] = glyphs[i] * res;
+            total += widths[i] + space;
         }
 
-        //TODO: properly figure out spacing between letters
-        float space = tx.getCanvasToWorld().mapRadius(1);
-
         // allowable angle change in consecutive characters 
         double maxAngleDelta = 
             rule.number(f, TEXT_MAX_CHAR_ANGLE_DELTA, DEFAULT_MAX_ANGLE_CHAR_DELTA);
 
         //
-        // sample points along the line for letters
+        // try positions along the line, starting from the middle and alternating either side
         //
-        List<LineSegment> path = new ArrayList<LineSegment>();
+        double slack = sampler.getLength() - total;
+        double step = Math.max(total / 2, slack / MAX_LINE_PLACEMENTS);
+
+        boolean found = false;
+        for (int k = 0; k < MAX_LINE_PLACEMENTS && !found; k++) {
+            double dist = ((k + 1) / 2) * step;
+            if (dist > slack / 2 + sampler.tol) {
+                // both sides exhausted
+                break;
+            }
+
+            found = sample(sampler, slack / 2 + (k % 2 == 0 ? dist : -dist), widths, space, 
+                maxAngleDelta);
+        }
+        if (!found) {
+            return false;
+        }
 
-        LineSampler sampler = new LineSampler(line.getCoordinates());
+        List<LineSegment> path = new ArrayList<LineSegment>(widths.length);
+        for (int i = 0; i < widths.length; i++) {
+            int j = 4 * i;
+            path.add(new LineSegment(new Coordinate(glyphPoints[j], glyphPoints[j+1]), 
+                new Coordinate(glyphPoints[j+2], glyphPoints[j+3])));
+        }
 
-        for (int i = 0; i < txt.length(); i++) {
-            // get next point
-            Coordinate c1 = sampler.sample();
+        label.setPath(path);
+        label.setHeight(bounds.height());
+        // stroked halos extend past the text by their radius
+        Paint halo = label.get(HALO, Paint.class);
+        float pad = halo != null ? halo.getStrokeWidth() / 2f : 0f;
+        label.setBoxes(boxes(path, r.height(), pad));
+        return true;
+    }
 
-            // advance by width of letter
-            sampler.advance(widths[i]);
+    /**
+     * Samples the start and end points of each letter along the line, starting at the specified
+     * offset, into {@link #glyphPoints}.
+     * 
+     * @return False if the letters run off the line or the angle between consecutive letters 
+     *   is too sharp.
+     */
+    boolean sample(LineSampler sampler, double offset, float[] widths, float space, 
+        double maxAngleDelta) {
+
+        if (glyphPoints.length < 4 * widths.length) {
+            glyphPoints = new double[4 * widths.length];
+        }
 
-            // get point for end of letter
-            Coordinate c2 = sampler.sample();
+        double pos = offset;
+        double prev = 0;
+        for (int i = 0; i < widths.length; i++) {
+            int j = 4 * i;
 
-            if (c1 == null || c2 == null) {
-                // ran out of room
+            // start and end of letter
+            if (!sampler.sample(pos, c)) {
                 return false;
             }
+            glyphPoints[j] = c.x;
+            glyphPoints[j+1] = c.y;
 
-            LineSegment seg = new LineSegment(c1,c2); 
-            
-            // check angle made with previous segment
-            if (i > 0) {
-                LineSegment prev = path.get(i-1);
-                if (Math.abs(angle(seg) - angle(prev)) > maxAngleDelta) {
-                    return false;
-                }
+            pos += widths[i];
+            if (!sampler.sample(pos, c)) {
+                return false;
             }
+            glyphPoints[j+2] = c.x;
+            glyphPoints[j+3] = c.y;
 
-            path.add(seg);
-            sampler.advance(space);
-        }
+            // check angle made with previous letter
+            double angle = Math.atan((glyphPoints[j+3] - glyphPoints[j+1]) / 
+                (glyphPoints[j+2] - glyphPoints[j]));
+            if (i > 0 && Math.abs(angle - prev) > maxAngleDelta) {
+                return false;
+            }
 
-        label.setPath(path);
-        label.setShape(toShape(path, bounds.height()));
-        return labels.insert(label);
+            prev = angle;
+            pos += space;
+        }
+        return true;
     }
 
-
-    Geometry toShape(List<LineSegment> path, double h) {
-        //TODO: take into account letter alignment
-        // turn the path into a single polygon by generating points orthogonal 
-        // to the individual line segments 
-        GeomBuilder gb = new GeomBuilder();
-
-        LinkedList<Coordinate> top = new LinkedList<Coordinate>();
+    /**
+     * Computes the canvas space collision boxes of the characters of a line label, one box of 
+     * height <tt>h</tt> standing on each segment of the path, grown by <tt>pad</tt> on all 
+     * sides.
+     */
+    float[] boxes(List<LineSegment> path, float h, float pad) {
+        float[] boxes = new float[8 * path.size()];
         for (int i = 0; i < path.size(); i++) {
             LineSegment seg = path.get(i);
-            Coordinate p0 = seg.p0;
-            Coordinate p1 = seg.p1;
-            double theta = seg.angle();
-
-            gb.points(p0.x, p0.y);
-
-            // generate the perpendicular point at a distance of h 
-            Coordinate p2 = new Coordinate();
-
-            if (theta > 0) {
-                if (theta <= HALFPI) {
-                    //ne
-                    double phi = Math.PI - (HALFPI + theta);
-                    p2.x = (Math.cos(phi) * h - p0.x) * -1;
-                    p2.y = Math.sin(phi) * h + p0.y;
-                }
-                else {
-                    //nw
-                    double phi = Math.PI - theta;
-                    p2.x = Math.cos(phi) * h + p0.x; 
-                    p2.y = Math.sin(phi) * h + p0.y;
-                }
-            }
-            else {
-                theta = Math.abs(theta);
-                if (theta < HALFPI) {
-                    double phi = HALFPI- theta;
-                    p2.x = (Math.cos(phi) * h + p0.x);
-                    p2.y = (Math.sin(phi) * h + p0.y);
-                }
-                else {
-                    double phi = theta = HALFPI;
-                    p2.x = Math.cos(phi) * h + p0.x;
-                    p2.y = (Math.sin(phi) * h - p0.y) * -1;
-                }
+            tx.getWorldToCanvas().map(seg.p0, p0);
+            tx.getWorldToCanvas().map(seg.p1, p1);
+
+            // unit vectors along the segment and perpendicular to it, characters are drawn 
+            // upright, see render(LineLabel), so the box extends opposite to the reading 
+            // direction
+            float dx = p1.x - p0.x, dy = p1.y - p0.y;
+            float len = (float) Math.sqrt(dx*dx + dy*dy);
+            float ux = 1, uy = 0, nx = 0, ny = -1;
+            if (len > 0) {
+                ux = dx / len;
+                uy = dy / len;
+                float s = dx < 0 ? -1 : 1;
+                nx = s * uy;
+                ny = -s * ux;
             }
 
-            top.add(p2);
-            if (i == path.size()-1) {
-                gb.points(p1.x, p1.y);
-                top.add(new Coordinate(p1.x + p2.x - p0.x, p1.y + p2.y - p0.y));
-            }
+            float x0 = p0.x - (ux + nx) * pad, y0 = p0.y - (uy + ny) * pad;
+            float x1 = p1.x + (ux - nx) * pad, y1 = p1.y + (uy - ny) * pad;
+            float top = h + pad;
+
+            int j = 8 * i;
+            boxes[j] = x0;
+            boxes[j+1] = y0;
+            boxes[j+2] = x1;
+            boxes[j+3] = y1;
+            boxes[j+4] = p1.x + ux * pad + nx * top;
+            boxes[j+5] = p1.y + uy * pad + ny * top;
+            boxes[j+6] = p0.x - ux * pad + nx * top;
+            boxes[j+7] = p0.y - uy * pad + ny * top;
         }
-
-        for (Iterator<Coordinate> it = top.descendingIterator(); it.hasNext();) {
-            Coordinate c = it.next();
-            gb.points(c.x, c.y);
-        }
-
-        return gb.toPolygon();
+        return boxes;
     }
 
+
     Path smoothPath(Coordinate[] coords) {
         Path path = new Path();
         path.moveTo((float) coords[0].x, (float) coords[0].y);
@@ -377,9 +458,17 @@ public class Labeller {
         Paint p = label.get(Paint.class, Paint.class);
 
         Coordinate a = label.getAnchor();
-        PointF f = tx.getWorldToCanvas().map(a);
+        PointF f = tx.getWorldToCanvas().map(a, p0);
 
-        canvas.drawText(label.getText(), f.x, f.y, p);
+        Paint halo = label.get(HALO, Paint.class);
+        if (halo != null) {
+            HaloCache.Image img = halos.image(label.getText(), p, halo);
+            canvas.drawBitmap(img.getBitmap(), img.left(f.x, p.getTextAlign()), img.top(f.y), 
+                null);
+        }
+        else {
+            canvas.drawText(label.getText(), f.x, f.y, p);
+        }
 
         tx.apply(canvas);
     }
@@ -390,34 +479,49 @@ public class Labeller {
         String txt = label.getText();
 
         Paint p = label.get(Paint.class, Paint.class);
+        Paint halo = label.get(HALO, Paint.class);
+
+        // the first edge of each collision box is the canvas space baseline of the character, 
+        // see boxes(List,float,float), unless the boxes are padded for the halo
+        float[] glyphs = label.getBoxes();
+        if (glyphs == null || halo != null) {
+            glyphs = boxes(label.getPath(), 0, 0);
+        }
+
+        // halos of all characters first, the halo of a character would otherwise cover the
+        // one before it
+        if (halo != null) {
+            render(txt, glyphs, halo);
+        }
+        render(txt, glyphs, p);
 
-        List<LineSegment> path = label.getPath();
+        tx.apply(canvas);
+        //canvas.drawTextOnPath(l.text, l.getPath(), 0, 0, l.get(Paint.class,Paint.class));
+    }
+
+    void render(String txt, float[] glyphs, Paint p) {
         for (int i = 0; i < txt.length(); i++) {
-            LineSegment line = path.get(i);
-            
-            PointF p0 = tx.getWorldToCanvas().map(line.p0);
-            PointF p1 = tx.getWorldToCanvas().map(line.p1);
+            int j = 8 * i;
+            float x0 = glyphs[j], y0 = glyphs[j+1];
+            float x1 = glyphs[j+2], y1 = glyphs[j+3];
 
-            double theta = Math.atan((p1.y - p0.y) / (p1.x - p0.x));
-            
-            Matrix m = canvas.getMatrix();
-            Matrix n = new Matrix(canvas.getMatrix());
-            n.preRotate((float)Math.toDegrees(theta), p0.x, p0.y);
+            double theta = Math.atan((y1 - y0) / (x1 - x0));
 
             //Paint debug = new Paint();
             //debug.setColor(Color.RED);
-            //canvas.drawLine(p0.x, p0.y, p1.x, p1.y, debug);
+            //canvas.drawLine(x0, y0, x1, y1, debug);
 
-            canvas.setMatrix(n);
-            canvas.drawText(txt, i, i+1, p0.x, p0.y, p);
-            canvas.setMatrix(m);
+            canvas.save();
+            canvas.rotate((float)Math.toDegrees(theta), x0, y0);
+            canvas.drawText(txt, i, i+1, x0, y0, p);
+            canvas.restore();
         }
-
-        tx.apply(canvas);
-        //canvas.drawTextOnPath(l.text, l.getPath(), 0, 0, l.get(Paint.class,Paint.class));
     }
 
-    double angle(LineSegment l) {
-        return Math.atan((l.p1.y - l.p0.y) / (l.p1.x - l.p0.x));
+    /**
+     * The size of a canvas pixel in world units.
+     */
+    float resolution() {
+        return tx.getCanvasToWorld().mapRadius(1);
     }
 }
@@ -1,10 +1,14 @@
 package org.jeo.android.graphics;
 
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 
 import org.jeo.feature.Feature;
+import org.jeo.geom.GeomBuilder;
 import org.jeo.map.Rule;
 
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineSegment;
@@ -16,7 +20,16 @@ import com.vividsolutions.jts.geom.LineSegment;
  */
 public class LineLabel extends Label {
 
+    static final double HALFPI = Math.PI/2.0;
+
     List<LineSegment> path;
+    double height;
+
+    /**
+     * envelope of the unclipped line the label geometry was merged from, see LineLabelMerger, 
+     * or null if the label was not merged
+     */
+    Envelope merged;
 
     public LineLabel(String text, Rule rule, Feature feature, Geometry geom) {
         super(text, rule, feature, geom);
@@ -30,9 +43,95 @@ public class LineLabel extends Label {
         this.path = path;
     }
 
+    /**
+     * The height of the label, in world units.
+     */
+    public double getHeight() {
+        return height;
+    }
+
+    public void setHeight(double height) {
+        this.height = height;
+    }
+
     @Override
     public Envelope bounds() {
-        return shape().getEnvelopeInternal();
+        Geometry shape = shape();
+        return shape != null ? shape.getEnvelopeInternal() : null;
+    }
+
+    /**
+     * Derived shape of the label.
+     * <p>
+     * Unless explicitly set the shape is lazily computed from the path and height of the label.
+     * </p>
+     */
+    @Override
+    public Geometry shape() {
+        if (shape == null && path != null) {
+            shape = toShape(path, height);
+        }
+        return shape;
     }
 
+    Geometry toShape(List<LineSegment> path, double h) {
+        //TODO: take into account letter alignment
+        // turn the path into a single polygon by generating points orthogonal 
+        // to the individual line segments 
+        GeomBuilder gb = new GeomBuilder();
+
+        LinkedList<Coordinate> top = new LinkedList<Coordinate>();
+        for (int i = 0; i < path.size(); i++) {
+            LineSegment seg = path.get(i);
+            Coordinate p0 = seg.p0;
+            Coordinate p1 = seg.p1;
+            double theta = seg.angle();
+
+            gb.points(p0.x, p0.y);
+
+            // generate the perpendicular point at a distance of h 
+            Coordinate p2 = new Coordinate();
+
+            if (theta > 0) {
+                if (theta <= HALFPI) {
+                    //ne
+                    double phi = Math.PI - (HALFPI + theta);
+                    p2.x = (Math.cos(phi) * h - p0.x) * -1;
+                    p2.y = Math.sin(phi) * h + p0.y;
+                }
+                else {
+                    //nw
+                    double phi = Math.PI - theta;
+                    p2.x = Math.cos(phi) * h + p0.x; 
+                    p2.y = Math.sin(phi) * h + p0.y;
+                }
+            }
+            else {
+                theta = Math.abs(theta);
+                if (theta < HALFPI) {
+                    double phi = HALFPI- theta;
+                    p2.x = (Math.cos(phi) * h + p0.x);
+                    p2.y = (Math.sin(phi) * h + p0.y);
+                }
+                else {
+                    double phi = theta = HALFPI;
+                    p2.x = Math.cos(phi) * h + p0.x;
+                    p2.y = (Math.sin(phi) * h - p0.y) * -1;
+                }
+            }
+
+            top.add(p2);
+            if (i == path.size()-1) {
+                gb.points(p1.x, p1.y);
+                top.add(new Coordinate(p1.x + p2.x - p0.x, p1.y + p2.y - p0.y));
+            }
+        }
+
+        for (Iterator<Coordinate> it = top.descendingIterator(); it.hasNext();) {
+            Coordinate c = it.next();
+            gb.points(c.x, c.y);
+        }
+
+        return gb.toPolygon();
+    }
 }
@@ -0,0 +1,200 @@
+package org.jeo.android.graphics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jeo.map.Rule;
+
+import android.graphics.Paint;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.operation.linemerge.LineMerger;
+
+/**
+ * Merges line labels with the same text and rule whose lines connect.
+ * <p>
+ * Roads and other linear features are often split into many short segments, each of which
+ * results in a label candidate too short to be placed. This class merges the lines of such
+ * candidates into the longest connected lines possible, see {@link LineMerger}, and replaces
+ * the candidates with one label per merged line. Merged lines are labelled longest first, and
+ * a repeated label is dropped when it lies within {@link #TEXT_MIN_DISTANCE} pixels of one
+ * already kept.
+ * </p>
+ * <p>
+ * The unclipped feature geometries are merged, and the merged lines then clipped to the view, so
+ * that the merged lines are the same from one frame to the next as the map is panned, see
+ * {@link LabelCache}.
+ * </p>
+ */
+public class LineLabelMerger {
+
+    /** minimum distance between repeated labels, in pixels */
+    public static final String TEXT_MIN_DISTANCE = "text-min-distance";
+
+    /**
+     * Group key.
+     */
+    static class Key {
+        Rule rule;
+        String text;
+
+        Key(Label label) {
+            rule = label.getRule();
+            text = label.getText();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(rule) + text.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) obj;
+            return rule == k.rule && text.equals(k.text);
+        }
+    }
+
+    static final Comparator<Label> LONGEST_FIRST = new Comparator<Label>() {
+        @Override
+        public int compare(Label l1, Label l2) {
+            return Double.compare(l2.getGeometry().getLength(), l1.getGeometry().getLength());
+        }
+    };
+
+    /** size of a pixel in world units */
+    double res;
+
+    /** area to clip merged lines to */
+    Envelope bounds;
+    Clipper clipper;
+
+    /**
+     * Creates a merger.
+     *
+     * @param res The size of a pixel, in world units.
+     * @param bounds The area to clip merged lines to.
+     */
+    public LineLabelMerger(double res, Envelope bounds) {
+        this.res = res;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Merges the line labels in a list of labels, in place.
+     * <p>
+     * Labels other than {@link LineLabel} are left as is. The merged labels of a group take the
+     * place of the first label of the group in the list.
+     * </p>
+     */
+    public void merge(List<Label> labels) {
+        Map<Key,List<LineLabel>> groups = new LinkedHashMap<Key, List<LineLabel>>();
+        List<Object> order = new ArrayList<Object>(labels.size());
+
+        for (Label l : labels) {
+            if (l instanceof LineLabel) {
+                Key key = new Key(l);
+                List<LineLabel> group = groups.get(key);
+                if (group == null) {
+                    group = new ArrayList<LineLabel>(2);
+                    groups.put(key, group);
+                    order.add(key);
+                }
+                group.add((LineLabel) l);
+            }
+            else {
+                order.add(l);
+            }
+        }
+
+        if (groups.isEmpty()) {
+            return;
+        }
+
+        labels.clear();
+        for (Object obj : order) {
+            if (obj instanceof Key) {
+                merge(groups.get(obj), labels);
+            }
+            else {
+                labels.add((Label) obj);
+            }
+        }
+    }
+
+    void merge(List<LineLabel> group, List<Label> labels) {
+        LineLabel first = group.get(0);
+        if (group.size() == 1 && source(first) instanceof LineString) {
+            // nothing to merge
+            labels.add(first);
+            return;
+        }
+
+        LineMerger merger = new LineMerger();
+        for (LineLabel l : group) {
+            merger.add(source(l));
+        }
+
+        if (clipper == null) {
+            clipper = new Clipper(bounds);
+        }
+
+        // clip the merged lines, keeping the envelope of the unclipped line as the label key
+        @SuppressWarnings("unchecked")
+        List<LineString> merged = new ArrayList<LineString>(merger.getMergedLineStrings());
+        List<LineLabel> lines = new ArrayList<LineLabel>(merged.size());
+        for (LineString line : merged) {
+            Geometry clipped = clipper.clip(line);
+            if (clipped.isEmpty()) {
+                continue;
+            }
+
+            LineLabel l = new LineLabel(first.getText(), first.getRule(), first.getFeature(), 
+                clipped);
+            l.put(Paint.class, first.get(Paint.class, Paint.class));
+            l.put(Labeller.HALO, first.get(Labeller.HALO, Paint.class));
+            l.merged = line.getEnvelopeInternal();
+            lines.add(l);
+        }
+        Collections.sort(lines, LONGEST_FIRST);
+
+        double minDist = first.getRule().number(first.getFeature(), TEXT_MIN_DISTANCE, 0f) * res;
+        List<Coordinate> kept = new ArrayList<Coordinate>();
+
+        for (LineLabel l : lines) {
+            Coordinate c = l.getGeometry().getEnvelopeInternal().centre();
+            if (minDist > 0 && tooClose(c, kept, minDist)) {
+                continue;
+            }
+            kept.add(c);
+            labels.add(l);
+        }
+    }
+
+    /**
+     * The unclipped geometry of a label.
+     */
+    Geometry source(LineLabel label) {
+        Geometry g = label.getFeature().geometry();
+        return g != null ? g : label.getGeometry();
+    }
+
+    boolean tooClose(Coordinate c, List<Coordinate> kept, double minDist) {
+        for (Coordinate k : kept) {
+            if (c.distance(k) < minDist) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,14 +1,21 @@
 package org.jeo.android.graphics;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.impl.CoordinateArraySequence;
 
 /**
  * Samples a LineString object at arbitrary positions along the line string.
  * <p>
- * This sampler is stateful and maintains a current distance from the start of the line that is 
- * moved along with calls to the {@link #advance(double)} method. The {@link #sample()} method is 
- * used to obtain the coordinate at the current position. 
+ * This sampler is stateful and maintains a current distance from the start of the line that is
+ * moved along with calls to the {@link #advance(double)} method. The {@link #sample()} method is
+ * used to obtain the coordinate at the current position. Random access is provided by
+ * {@link #sample(double, Coordinate)}.
+ * </p>
+ * <p>
+ * The cumulative length of the line at each vertex is computed once up front, sampling a
+ * position locates its segment with a binary search.
  * </p>
  * @author Justin Deoliveira, OpenGeo
  */
@@ -18,25 +25,48 @@ public class LineSampler {
     final static double DEFAULT_TOL = 1e-7;
 
     /** the line coordinates */
-    Coordinate[] line;
+    CoordinateSequence line;
+
+    /** cumulative length at each vertex */
+    double[] lengths;
 
-    /** index of current and next coordinate */
-    int p, q;
+    /** whether the line is sampled from its end */
+    boolean reverse;
 
-    /** percentage between current coordinates */
-    float f;
+    /** current position */
+    double pos;
+
+    /** segment of the last sample */
+    int seg;
 
     /** comparison tolerance */
     double tol = DEFAULT_TOL;
 
     public LineSampler(LineString line) {
-        this(line.getCoordinates());
+        this(line.getCoordinateSequence(), false);
     }
 
     public LineSampler(Coordinate[] line) {
+        this(new CoordinateArraySequence(line), false);
+    }
+
+    /**
+     * Creates a sampler for a coordinate sequence.
+     *
+     * @param line The line coordinates.
+     * @param reverse Whether to sample the line from its last coordinate to its first.
+     */
+    public LineSampler(CoordinateSequence line, boolean reverse) {
         this.line = line;
-        p = 0; q = 1;
-        f = 0;
+        this.reverse = reverse;
+
+        int n = line.size();
+        lengths = new double[Math.max(n, 1)];
+        for (int i = 1; i < n; i++) {
+            double dx = line.getX(i) - line.getX(i-1);
+            double dy = line.getY(i) - line.getY(i-1);
+            lengths[i] = lengths[i-1] + Math.sqrt(dx*dx + dy*dy);
+        }
     }
 
     /**
@@ -50,70 +80,107 @@ public class LineSampler {
     }
 
     /**
-     * Advances the position of the sampler along by the specified distance. 
+     * The length of the line.
      */
-    public LineSampler advance(double dist) {
-        while (dist > 0 && p < line.length-1) {
-            double len = lenToNext();
-            if (len == -1) {
-                //no more
-                break;
-            }
+    public double getLength() {
+        return lengths[lengths.length-1];
+    }
 
-            double remain = dist - len;
-            if (remain > tol) {
-                // advance to next and keep going
-                dist -= len;
-                p++;
-                q++;
-                f = 0;
-            }
-            else {
-                // were here, readjust f
-                f = (float) ((lenFromPrev() + dist) / line[p].distance(line[q]));
-                break;
-            }
-        }
+    /**
+     * The current position of the sampler.
+     */
+    public double getPosition() {
+        return pos;
+    }
+
+    /**
+     * Moves the sampler to the specified distance from the start of the line.
+     */
+    public LineSampler seek(double pos) {
+        this.pos = pos;
+        return this;
+    }
 
+    /**
+     * Advances the position of the sampler along by the specified distance.
+     */
+    public LineSampler advance(double dist) {
+        if (dist > 0) {
+            pos += dist;
+        }
         return this;
     }
 
+    /**
+     * Determines if a span of the specified length fits on the line starting at the specified
+     * offset.
+     */
+    public boolean fits(double offset, double len) {
+        return offset > -tol && offset + len < getLength() + tol;
+    }
+
     /**
      * Samples the coordinate at the current position.
      * <p>
-     * If the current position is past the end of the line string this method returns 
+     * If the current position is past the end of the line string this method returns
      * <code>null</code>.
      * </p>
      */
     public Coordinate sample() {
-        if (p == line.length-1) {
-            return null;
+        Coordinate c = new Coordinate();
+        return sample(pos, c) ? c : null;
+    }
+
+    /**
+     * Samples the coordinate at the specified distance from the start of the line, storing it in
+     * the specified coordinate.
+     *
+     * @return False if the position is not on the line, in which case <tt>c</tt> is unchanged.
+     */
+    public boolean sample(double pos, Coordinate c) {
+        double len = getLength();
+        if (pos < -tol || pos > len + tol || line.size() < 2) {
+            return false;
         }
 
-        Coordinate c1 = line[p];
-        Coordinate c2 = line[q];
+        pos = Math.max(0, Math.min(pos, len));
+        if (reverse) {
+            pos = len - pos;
+        }
 
-        double x = (c2.x - c1.x) * f + c1.x;
-        double y = (c2.y - c1.y) * f + c1.y;
+        int i = segment(pos);
+        double d = lengths[i+1] - lengths[i];
+        double f = d > 0 ? (pos - lengths[i]) / d : 0;
 
-        return new Coordinate(x,y);
+        c.x = (line.getX(i+1) - line.getX(i)) * f + line.getX(i);
+        c.y = (line.getY(i+1) - line.getY(i)) * f + line.getY(i);
+        return true;
     }
 
-    double lenToNext() {
-        if (p == line.length-1) {
-            return -1;
+    /**
+     * Finds the segment containing the specified position, ie. the index <tt>i</tt> such that
+     * <tt>lengths[i] <= pos <= lengths[i+1]</tt>.
+     */
+    int segment(double pos) {
+        // sequential access usually hits the last segment or the next one
+        int last = lengths.length - 2;
+        if (seg <= last && lengths[seg] <= pos && pos <= lengths[seg+1]) {
+            return seg;
         }
-
-        double d = line[p].distance(line[q]);
-        return d - d * f;
-    }
-
-    double lenFromPrev() {
-        if (p == line.length-1) {
-            return 0-1;
+        if (seg < last && lengths[seg+1] <= pos && pos <= lengths[seg+2]) {
+            return ++seg;
         }
 
-        double d = line[p].distance(line[q]);
-        return d * f;
+        int lo = 0, hi = last;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (lengths[mid] <= pos) {
+                lo = mid;
+            }
+            else {
+                hi = mid - 1;
+            }
+        }
+        return seg = lo;
     }
 }
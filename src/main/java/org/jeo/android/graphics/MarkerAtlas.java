@@ -0,0 +1,173 @@
+package org.jeo.android.graphics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.Cap;
+import android.graphics.Paint.Style;
+import android.graphics.RectF;
+
+/**
+ * Cache of pre-rendered marker images.
+ * <p>
+ * Each distinct marker, identified by its size and the resolved values of its fill and outline
+ * paints, is rasterized once into a small bitmap. Drawing a marker is then a single bitmap blit
+ * rather than one or two oval draws. Simple filled dots are drawn in bulk with
+ * {@link Canvas#drawPoints(float[], int, int, Paint)} instead, see {@link #dotPaint(Paint, float)}.
+ * </p>
+ * <p>
+ * Markers whose paints specify a transfer mode are not cached since blitting would change how
+ * they composite, {@link #supports(Paint, Paint)} returns false for them.
+ * </p>
+ * <p>
+ * Once {@link #MAX_MARKERS} markers are cached the atlas starts over. The evicted images are not
+ * recycled since they may still be referenced by drawing commands of the current frame, for 
+ * instance on a hardware accelerated canvas, they are left to be garbage collected.
+ * </p>
+ */
+public class MarkerAtlas {
+
+    /** maximum number of cached markers */
+    static final int MAX_MARKERS = 64;
+
+    /** maximum size of markers drawn as dots */
+    static final float MAX_DOT_SIZE = 8f;
+
+    /**
+     * Marker key.
+     */
+    static class Key {
+        int fill, line;
+        float lineWidth, width, height;
+        boolean hasFill, hasLine, antiAlias;
+
+        Key(Paint fill, Paint line, float width, float height) {
+            hasFill = fill != null;
+            hasLine = line != null;
+            this.fill = hasFill ? fill.getColor() : 0;
+            this.line = hasLine ? line.getColor() : 0;
+            this.lineWidth = hasLine ? line.getStrokeWidth() : 0;
+            this.antiAlias = (hasFill && fill.isAntiAlias()) || (hasLine && line.isAntiAlias());
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = fill;
+            h = 31 * h + line;
+            h = 31 * h + Float.floatToIntBits(lineWidth);
+            h = 31 * h + Float.floatToIntBits(width);
+            h = 31 * h + Float.floatToIntBits(height);
+            h = 31 * h + (hasFill ? 1 : 0) + (hasLine ? 2 : 0) + (antiAlias ? 4 : 0);
+            return h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) obj;
+            return fill == k.fill && line == k.line && lineWidth == k.lineWidth &&
+                width == k.width && height == k.height && hasFill == k.hasFill &&
+                hasLine == k.hasLine && antiAlias == k.antiAlias;
+        }
+    }
+
+    Map<Key,Bitmap> markers = new HashMap<Key, Bitmap>();
+    Map<Key,Paint> dots = new HashMap<Key, Paint>();
+
+    /**
+     * Determines if the marker can be drawn through the atlas.
+     */
+    public boolean supports(Paint fill, Paint line) {
+        return (fill == null || fill.getXfermode() == null) &&
+            (line == null || line.getXfermode() == null);
+    }
+
+    /**
+     * Determines if the marker is a simple dot, one with no outline and a small circular fill.
+     */
+    public boolean isDot(Paint fill, Paint line, float width, float height) {
+        return fill != null && line == null && width == height && width <= MAX_DOT_SIZE;
+    }
+
+    /**
+     * Returns the paint used to draw a dot marker as a point.
+     */
+    public Paint dotPaint(Paint fill, float width) {
+        Key key = new Key(fill, null, width, width);
+        Paint p = dots.get(key);
+        if (p == null) {
+            p = new Paint(fill);
+            p.setStyle(Style.STROKE);
+            p.setStrokeCap(Cap.ROUND);
+            p.setStrokeWidth(width);
+
+            if (dots.size() >= MAX_MARKERS) {
+                dots.clear();
+            }
+            dots.put(key, p);
+        }
+        return p;
+    }
+
+    /**
+     * Returns the image for a marker, rasterizing it if need be.
+     * <p>
+     * The marker is centered in the image.
+     * </p>
+     */
+    public Bitmap marker(Paint fill, Paint line, float width, float height) {
+        Key key = new Key(fill, line, width, height);
+        Bitmap img = markers.get(key);
+        if (img == null) {
+            if (markers.size() >= MAX_MARKERS) {
+                // images may have been drawn this frame, don't recycle them
+                markers.clear();
+            }
+
+            img = rasterize(fill, line, width, height, key.lineWidth);
+            markers.put(key, img);
+        }
+        return img;
+    }
+
+    Bitmap rasterize(Paint fill, Paint line, float width, float height, float lineWidth) {
+        // pad for stroke and anti-aliasing
+        float pad = lineWidth / 2f + 1f;
+        int w = (int) Math.ceil(width + 2 * pad);
+        int h = (int) Math.ceil(height + 2 * pad);
+
+        Bitmap img = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(img);
+
+        RectF oval = new RectF((w - width) / 2f, (h - height) / 2f,
+            (w + width) / 2f, (h + height) / 2f);
+        if (fill != null) {
+            canvas.drawOval(oval, fill);
+        }
+        if (line != null) {
+            canvas.drawOval(oval, line);
+        }
+        return img;
+    }
+
+    /**
+     * Clears the atlas, recycling the cached images.
+     * <p>
+     * Must not be called while a frame drawn with the images may still be pending.
+     * </p>
+     */
+    public void clear() {
+        for (Bitmap img : markers.values()) {
+            img.recycle();
+        }
+        markers.clear();
+        dots.clear();
+    }
+}
@@ -0,0 +1,111 @@
+package org.jeo.android.graphics;
+
+import org.jeo.map.Map;
+import org.jeo.map.Viewport;
+import org.osgeo.proj4j.CoordinateReferenceSystem;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Renders blocks of NxN tiles in a single pass with {@link Renderer}.
+ * <p>
+ * The whole block, padded by a gutter of pixels on each side, is rendered into one bitmap so that
+ * every layer is queried once and all tiles share a single {@link LabelIndex}. This amortizes
+ * query cost over the block and keeps labels consistent across tile edges. The result is then
+ * sliced into individual tiles.
+ * </p>
+ * <p>
+ * Instances are not thread safe, the underlying bitmap is reused between calls to
+ * {@link #render(Map, Envelope, CoordinateReferenceSystem)}.
+ * </p>
+ */
+public class MetaTiler {
+
+    /** default number of tiles along each side of the block */
+    public static final int DEFAULT_META_SIZE = 4;
+
+    /** default gutter, in pixels */
+    public static final int DEFAULT_GUTTER = 32;
+
+    int metaSize;
+    int tileSize;
+    int gutter;
+
+    Bitmap img;
+    Canvas canvas;
+    Renderer renderer;
+
+    public MetaTiler(int metaSize, int tileSize) {
+        this(metaSize, tileSize, DEFAULT_GUTTER);
+    }
+
+    public MetaTiler(int metaSize, int tileSize, int gutter) {
+        if (metaSize < 1) {
+            throw new IllegalArgumentException("meta size must be positive");
+        }
+
+        this.metaSize = metaSize;
+        this.tileSize = tileSize;
+        this.gutter = gutter;
+
+        int size = metaSize * tileSize + 2 * gutter;
+        img = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(img);
+        renderer = new Renderer(canvas);
+    }
+
+    public int getMetaSize() {
+        return metaSize;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Renders a block of tiles.
+     *
+     * @param map The map to render.
+     * @param bounds The bounds of the block, excluding the gutter.
+     * @param crs The projection of <tt>bounds</tt>.
+     *
+     * @return The tiles as <tt>tiles[col][row]</tt> where rows are counted from the bottom of the
+     * block, matching the tile row ordering of {@link org.jeo.data.TilePyramid}.
+     */
+    public Bitmap[][] render(Map map, Envelope bounds, CoordinateReferenceSystem crs) {
+        img.eraseColor(Color.TRANSPARENT);
+
+        // pad the bounds by the gutter
+        double resx = bounds.getWidth() / (metaSize * tileSize);
+        double resy = bounds.getHeight() / (metaSize * tileSize);
+
+        Envelope padded = new Envelope(bounds);
+        padded.expandBy(gutter * resx, gutter * resy);
+
+        int size = img.getWidth();
+
+        Viewport view = new Viewport(map);
+        view.setCRS(crs);
+        view.setWidth(size);
+        view.setHeight(size);
+        view.setBounds(padded);
+
+        renderer.init(view);
+        renderer.render();
+
+        Bitmap[][] tiles = new Bitmap[metaSize][metaSize];
+        for (int i = 0; i < metaSize; i++) {
+            for (int j = 0; j < metaSize; j++) {
+                // bitmap origin is top left, rows count from the bottom
+                int x = gutter + i * tileSize;
+                int y = gutter + (metaSize - 1 - j) * tileSize;
+                tiles[i][j] = Bitmap.createBitmap(img, x, y, tileSize, tileSize);
+            }
+        }
+        return tiles;
+    }
+}
@@ -0,0 +1,121 @@
+package org.jeo.android.graphics;
+
+import org.jeo.map.Viewport;
+
+import android.graphics.Path;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Builds canvas space {@link Path} objects from geometries.
+ * <p>
+ * Vertices are read directly from the {@link CoordinateSequence} of the geometry, transformed
+ * from world to canvas coordinates in double precision, and generalized by dropping vertices that
+ * fall within a pixel tolerance of the previous one, all in a single pass without allocating
+ * intermediate coordinates. The resulting path is meant to be drawn with the canvas matrix reset,
+ * see {@link TransformPipeline#reset(android.graphics.Canvas)}.
+ * </p>
+ * <p>
+ * Instances are not thread safe.
+ * </p>
+ */
+public class PathBuilder {
+
+    /** default generalization tolerance, in pixels */
+    public static final float DEFAULT_TOLERANCE = 1f;
+
+    /** world to canvas transform */
+    double scx, scy, tx, ty;
+
+    /** generalization tolerance */
+    float tol = DEFAULT_TOLERANCE;
+
+    public PathBuilder(Viewport view) {
+        update(view);
+    }
+
+    /**
+     * Updates the world to canvas transform from the viewport.
+     */
+    public void update(Viewport view) {
+        // same transform as TransformPipeline.getWorldToCanvas()
+        scx = view.scaleX();
+        scy = -view.scaleY();
+        tx = view.translateX();
+        ty = view.translateY();
+    }
+
+    /**
+     * Sets the generalization tolerance in pixels, <tt>0</tt> disables generalization.
+     */
+    public void setTolerance(float tol) {
+        this.tol = tol;
+    }
+
+    /**
+     * Builds a path from a geometry.
+     *
+     * @param g The geometry, in world coordinates.
+     * @param path The path to build, it is reset first.
+     *
+     * @return The path.
+     */
+    public Path build(Geometry g, Path path) {
+        path.rewind();
+        append(g, path);
+        return path;
+    }
+
+    void append(Geometry g, Path path) {
+        if (g instanceof LineString) {
+            append(((LineString) g).getCoordinateSequence(), false, path);
+        }
+        else if (g instanceof Polygon) {
+            Polygon p = (Polygon) g;
+            append(p.getExteriorRing().getCoordinateSequence(), true, path);
+            for (int i = 0; i < p.getNumInteriorRing(); i++) {
+                append(p.getInteriorRingN(i).getCoordinateSequence(), true, path);
+            }
+        }
+        else {
+            for (int i = 0; i < g.getNumGeometries(); i++) {
+                Geometry h = g.getGeometryN(i);
+                if (h != g) {
+                    append(h, path);
+                }
+            }
+        }
+    }
+
+    void append(CoordinateSequence cs, boolean close, Path path) {
+        int n = cs.size();
+        if (n == 0) {
+            return;
+        }
+
+        float x0 = (float) (cs.getX(0) * scx + tx);
+        float y0 = (float) (cs.getY(0) * scy + ty);
+        path.moveTo(x0, y0);
+
+        for (int i = 1; i < n; i++) {
+            float x = (float) (cs.getX(i) * scx + tx);
+            float y = (float) (cs.getY(i) * scy + ty);
+
+            // skip vertices within tolerance, always keeping the last
+            if (i < n-1 && Math.abs(x - x0) < tol && Math.abs(y - y0) < tol) {
+                continue;
+            }
+
+            path.lineTo(x, y);
+            x0 = x;
+            y0 = y;
+        }
+
+        if (close) {
+            path.close();
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package org.jeo.android.graphics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jeo.data.Cursor;
+import org.jeo.data.Query;
+import org.jeo.data.VectorData;
+import org.jeo.feature.Feature;
+import org.jeo.feature.Field;
+import org.jeo.feature.ListFeature;
+import org.jeo.feature.Schema;
+import org.jeo.feature.SchemaBuilder;
+import org.jeo.map.Viewport;
+import org.osgeo.proj4j.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Groups the features of a point layer into clusters in screen space.
+ * <p>
+ * Features are assigned to the cells of a grid whose cells are {@link #getSize()} pixels wide at
+ * the current (integer) zoom level, see {@link ScaleFilter#zoom(Viewport)}. Each non empty cell
+ * results in a single cluster feature located at the mean position of its features. Cluster
+ * features carry the attributes of the first feature in the cluster, along with a
+ * {@link #COUNT} attribute holding the number of features in the cluster, so that styles can
+ * make use of it, for example:
+ * <pre>
+ * #places {
+ *   marker-cluster-size: 40;
+ *   [count > 10] {
+ *     marker-width: 20;
+ *   }
+ * }
+ * </pre>
+ * </p>
+ * <p>
+ * The grid is anchored at the origin of the world and cell sizes halve with each zoom level so
+ * the cells of one level nest within those of the level above it. The clusters of each zoom level
+ * are cached along with the area they cover. Panning within that area requires no querying, and
+ * zooming out from a cached level merges its clusters rather than reading the features again.
+ * Changes to the underlying data are not detected, see {@link Renderer#invalidate()}. The cache
+ * is cleared when the projection of the view changes.
+ * </p>
+ * <p>
+ * Instances are not thread safe.
+ * </p>
+ */
+public class PointClusterer {
+
+    /** style property specifying the cluster cell size in pixels */
+    public static final String CLUSTER_SIZE = "marker-cluster-size";
+
+    /** attribute holding the number of features in a cluster */
+    public static final String COUNT = "count";
+
+    /** maximum number of zoom levels cached */
+    static final int MAX_LEVELS = 8;
+
+    static GeometryFactory GEOM_FACTORY = new GeometryFactory();
+
+    /**
+     * A cluster of features.
+     */
+    static class Cluster {
+        double sumx, sumy;
+        int count;
+
+        /** first feature of the cluster, and the cluster feature */
+        Feature first;
+        Feature feature;
+    }
+
+    /**
+     * Clusters of a single zoom level.
+     */
+    static class Level {
+        int zoom;
+        double cell;
+
+        /** area covered, aligned to the cell grid */
+        Envelope extent;
+        HashMap<Long,Cluster> clusters = new HashMap<Long, Cluster>();
+
+        Level(int zoom, double cell, Envelope extent) {
+            this.zoom = zoom;
+            this.cell = cell;
+            this.extent = extent;
+        }
+
+        void add(Feature f, double x, double y) {
+            Long key = key((long)Math.floor(x / cell), (long)Math.floor(y / cell));
+            Cluster c = clusters.get(key);
+            if (c == null) {
+                c = new Cluster();
+                c.first = f;
+                clusters.put(key, c);
+            }
+            c.sumx += x;
+            c.sumy += y;
+            c.count++;
+        }
+
+        static Long key(long x, long y) {
+            return (x << 32) | (y & 0xffffffffL);
+        }
+    }
+
+    float size;
+    Schema schema;
+    HashMap<Integer,Level> levels = new HashMap<Integer, Level>();
+
+    /** projection of the cached levels, and its zoom level 0 resolution */
+    CoordinateReferenceSystem crs;
+    double res0 = ScaleFilter.ZOOM0_RES;
+
+    public PointClusterer(float size) {
+        this.size = size;
+    }
+
+    /**
+     * The cluster cell size, in pixels.
+     */
+    public float getSize() {
+        return size;
+    }
+
+    /**
+     * Discards all cached clusters.
+     */
+    public void clear() {
+        levels.clear();
+    }
+
+    /**
+     * Clusters the features of a layer for the specified view.
+     *
+     * @param data The layer data.
+     * @param q The query to read features with, its bounds are replaced with the area to cluster.
+     * @param view The view being rendered.
+     *
+     * @return The cluster features intersecting the view.
+     */
+    public List<Feature> cluster(VectorData data, Query q, Viewport view) throws IOException {
+        if (schema == null) {
+            schema = schema(data);
+        }
+
+        if (view.getCRS() != crs) {
+            levels.clear();
+            crs = view.getCRS();
+            res0 = ScaleFilter.zoom0Res(crs);
+        }
+
+        Envelope bounds = view.getBounds();
+        int zoom = (int) Math.round(ScaleFilter.zoom(view));
+
+        Level level = levels.get(zoom);
+        if (level == null || !level.extent.contains(bounds)) {
+            level = merge(zoom, bounds);
+            if (level == null) {
+                level = query(data, q, zoom, bounds);
+            }
+
+            if (levels.size() >= MAX_LEVELS) {
+                levels.clear();
+            }
+            levels.put(zoom, level);
+        }
+
+        List<Feature> features = new ArrayList<Feature>();
+        for (Cluster c : level.clusters.values()) {
+            double x = c.sumx / c.count;
+            double y = c.sumy / c.count;
+            if (bounds.contains(x, y)) {
+                features.add(feature(c, x, y));
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Builds the level by merging the clusters of a cached finer level covering the bounds.
+     */
+    Level merge(int zoom, Envelope bounds) {
+        Level finer = null;
+        for (Level l : levels.values()) {
+            if (l.zoom > zoom && l.extent.contains(bounds) &&
+                (finer == null || l.zoom < finer.zoom)) {
+                finer = l;
+            }
+        }
+        if (finer == null) {
+            return null;
+        }
+
+        // only the cells entirely within the finer level are complete
+        double cell = cell(zoom);
+        Envelope e = finer.extent;
+        Envelope extent = new Envelope(Math.ceil(e.getMinX() / cell) * cell,
+            Math.floor(e.getMaxX() / cell) * cell, Math.ceil(e.getMinY() / cell) * cell,
+            Math.floor(e.getMaxY() / cell) * cell);
+        if (!extent.contains(bounds)) {
+            return null;
+        }
+
+        Level level = new Level(zoom, cell, extent);
+
+        int shift = finer.zoom - zoom;
+        for (Map.Entry<Long,Cluster> entry : finer.clusters.entrySet()) {
+            long k = entry.getKey();
+            Long key = Level.key((k >> 32) >> shift, ((long)(int)k) >> shift);
+
+            Cluster child = entry.getValue();
+            Cluster c = level.clusters.get(key);
+            if (c == null) {
+                c = new Cluster();
+                c.first = child.first;
+                level.clusters.put(key, c);
+            }
+            c.sumx += child.sumx;
+            c.sumy += child.sumy;
+            c.count += child.count;
+        }
+        return level;
+    }
+
+    /**
+     * Builds the level by querying the features.
+     */
+    Level query(VectorData data, Query q, int zoom, Envelope bounds) throws IOException {
+        // snap the bounds outward to the cell grid so every cell is complete
+        double cell = cell(zoom);
+        Envelope extent = new Envelope(Math.floor(bounds.getMinX() / cell) * cell,
+            Math.ceil(bounds.getMaxX() / cell) * cell, Math.floor(bounds.getMinY() / cell) * cell,
+            Math.ceil(bounds.getMaxY() / cell) * cell);
+
+        Level level = new Level(zoom, cell, extent);
+
+        Cursor<Feature> cursor = data.cursor(q.bounds(extent));
+        try {
+            while (cursor.hasNext()) {
+                Feature f = cursor.next();
+                Geometry g = f.geometry();
+                if (g == null || g.isEmpty()) {
+                    continue;
+                }
+
+                if (g instanceof Point) {
+                    level.add(f, ((Point) g).getX(), ((Point) g).getY());
+                }
+                else {
+                    Envelope e = g.getEnvelopeInternal();
+                    level.add(f, (e.getMinX() + e.getMaxX()) / 2d,
+                        (e.getMinY() + e.getMaxY()) / 2d);
+                }
+            }
+        }
+        finally {
+            cursor.close();
+        }
+        return level;
+    }
+
+    /**
+     * Size of a cell at the specified zoom level, in world units.
+     */
+    double cell(int zoom) {
+        return size * res0 / Math.pow(2, zoom);
+    }
+
+    Feature feature(Cluster c, double x, double y) {
+        if (c.feature == null) {
+            Feature f = new ListFeature(null, null, schema);
+            f.put(GEOM_FACTORY.createPoint(new Coordinate(x, y)));
+
+            for (Field fld : schema.getFields()) {
+                String name = fld.getName();
+                if (!Geometry.class.isAssignableFrom(fld.getType()) && !COUNT.equals(name)) {
+                    f.put(name, c.first.get(name));
+                }
+            }
+            f.put(COUNT, c.count);
+            c.feature = f;
+        }
+        return c.feature;
+    }
+
+    Schema schema(VectorData data) throws IOException {
+        SchemaBuilder sb = Schema.build(data.getName());
+        sb.field("geometry", Point.class);
+
+        for (Field fld : data.getSchema().getFields()) {
+            if (!Geometry.class.isAssignableFrom(fld.getType()) && !COUNT.equals(fld.getName())) {
+                sb.field(fld.getName(), fld.getType());
+            }
+        }
+        sb.field(COUNT, Integer.class);
+        return sb.schema();
+    }
+}
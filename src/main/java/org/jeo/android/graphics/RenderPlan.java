@@ -0,0 +1,196 @@
+package org.jeo.android.graphics;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.jeo.map.Layer;
+import org.jeo.map.Map;
+import org.jeo.map.Rule;
+import org.jeo.map.RuleList;
+
+/**
+ * The style work needed to render a {@link Map}, computed once and reused across frames.
+ * <p>
+ * The plan holds the selected, flattened and z grouped rules of each layer, as well as the
+ * collapsed background rule. A plan remains valid as long as the style and the list of layers of
+ * the map are the same, see {@link #isValid(Map)}. Changes made to the style in place are not
+ * detected, in that case {@link Renderer#invalidate()} must be called.
+ * </p>
+ */
+public class RenderPlan {
+
+    /**
+     * Plan for a single layer.
+     */
+    public static class LayerPlan {
+
+        Layer layer;
+        RuleList rules;
+        List<RuleSelector> groups;
+        Rule collapsed;
+
+        /** z groups keyed by the set of rules active at a zoom level */
+        HashMap<BitSet,List<RuleSelector>> scaled;
+
+        /** last zoom level and active groups */
+        double lastZoom = Double.NaN;
+        List<RuleSelector> lastGroups;
+
+        /** point clusterer, if the style enables clustering */
+        PointClusterer clusterer;
+
+        LayerPlan(Layer layer, RuleList rules) {
+            this.layer = layer;
+            this.rules = rules;
+
+            groups = group(rules);
+            scaled = new HashMap<BitSet, List<RuleSelector>>();
+
+            if (!rules.isEmpty()) {
+                float size = getCollapsedRule().number(layer, PointClusterer.CLUSTER_SIZE, 0f);
+                if (size > 0) {
+                    clusterer = new PointClusterer(size);
+                }
+            }
+        }
+
+        List<RuleSelector> group(RuleList rules) {
+            List<RuleSelector> groups = new ArrayList<RuleSelector>();
+            for (RuleList group : rules.zgroup()) {
+                groups.add(new RuleSelector(group));
+            }
+            return groups;
+        }
+
+        /**
+         * The layer.
+         */
+        public Layer getLayer() {
+            return layer;
+        }
+
+        /**
+         * The flattened rules that apply to the layer.
+         */
+        public RuleList getRules() {
+            return rules;
+        }
+
+        /**
+         * The rules that apply to the layer grouped by z order, one selector per group.
+         */
+        public List<RuleSelector> getGroups() {
+            return groups;
+        }
+
+        /**
+         * The rules that apply to the layer at the specified zoom level, grouped by z order.
+         * <p>
+         * Rules whose scale dependent filters exclude the zoom level are dropped, see 
+         * {@link ScaleFilter}. An empty list means no features of the layer can be drawn.
+         * </p>
+         */
+        public List<RuleSelector> getGroups(double zoom) {
+            if (zoom == lastZoom) {
+                return lastGroups;
+            }
+
+            BitSet active = new BitSet();
+            int i = 0;
+            for (Rule r : rules) {
+                if (ScaleFilter.isActive(r, zoom)) {
+                    active.set(i);
+                }
+                i++;
+            }
+
+            List<RuleSelector> g = scaled.get(active);
+            if (g == null) {
+                if (active.cardinality() == i) {
+                    g = groups;
+                }
+                else if (active.isEmpty()) {
+                    g = Collections.emptyList();
+                }
+                else {
+                    RuleList subset = new RuleList();
+                    i = 0;
+                    for (Rule r : rules) {
+                        if (active.get(i++)) {
+                            subset.add(r);
+                        }
+                    }
+                    g = group(subset);
+                }
+                scaled.put(active, g);
+            }
+
+            lastZoom = zoom;
+            lastGroups = g;
+            return g;
+        }
+
+        /**
+         * The clusterer for the features of the layer, or <code>null</code> if the style does not
+         * specify {@link PointClusterer#CLUSTER_SIZE}.
+         */
+        public PointClusterer getClusterer() {
+            return clusterer;
+        }
+
+        /**
+         * All the rules of the layer collapsed into one.
+         */
+        public Rule getCollapsedRule() {
+            if (collapsed == null) {
+                collapsed = rules.collapse();
+            }
+            return collapsed;
+        }
+    }
+
+    Object style;
+    List<Layer> layers;
+
+    List<LayerPlan> plans;
+    Rule background;
+
+    public RenderPlan(Map map) {
+        style = map.getStyle();
+        layers = new ArrayList<Layer>(map.getLayers());
+
+        plans = new ArrayList<LayerPlan>(layers.size());
+        for (Layer l : layers) {
+            plans.add(new LayerPlan(l,
+                map.getStyle().getRules().selectById(l.getName(), true).flatten()));
+        }
+
+        RuleList rules = map.getStyle().getRules().selectByName("Map", false);
+        background = rules.isEmpty() ? null : rules.collapse();
+    }
+
+    /**
+     * The plans for each layer of the map, in rendering order.
+     */
+    public List<LayerPlan> getLayers() {
+        return plans;
+    }
+
+    /**
+     * The collapsed "Map" rule, or <code>null</code> if the style specifies none.
+     */
+    public Rule getBackground() {
+        return background;
+    }
+
+    /**
+     * Determines if this plan is still valid for the specified map, ie. that the style and
+     * layers of the map have not changed since the plan was created.
+     */
+    public boolean isValid(Map map) {
+        return style == map.getStyle() && layers.equals(map.getLayers());
+    }
+}
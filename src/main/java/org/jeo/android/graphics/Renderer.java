@@ -2,22 +2,27 @@ package org.jeo.android.graphics;
 
 import static org.jeo.android.graphics.Graphics.bitmap;
 import static org.jeo.android.graphics.Graphics.color;
-import static org.jeo.android.graphics.Graphics.labelPaint;
-import static org.jeo.android.graphics.Graphics.linePaint;
-import static org.jeo.android.graphics.Graphics.markFillPaint;
-import static org.jeo.android.graphics.Graphics.markLinePaint;
 import static org.jeo.android.graphics.Graphics.paint;
-import static org.jeo.android.graphics.Graphics.polyFillPaint;
-import static org.jeo.android.graphics.Graphics.polyLinePaint;
 import static org.jeo.android.graphics.Graphics.rectFromCenter;
 import static org.jeo.map.CartoCSS.BACKGROUND_COLOR;
+import static org.jeo.map.CartoCSS.LINE_WIDTH;
 import static org.jeo.map.CartoCSS.MARKER_HEIGHT;
 import static org.jeo.map.CartoCSS.MARKER_WIDTH;
 import static org.jeo.map.CartoCSS.OPACITY;
 import static org.jeo.map.CartoCSS.TEXT_NAME;
 
 import java.io.IOException;
-
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jeo.android.graphics.RenderPlan.LayerPlan;
+import org.jeo.data.Cursor;
 import org.jeo.data.Dataset;
 import org.jeo.data.Query;
 import org.jeo.data.Tile;
@@ -26,14 +31,13 @@ import org.jeo.data.TilePyramid;
 import org.jeo.data.TileSet;
 import org.jeo.data.VectorData;
 import org.jeo.feature.Feature;
-import org.jeo.geom.CoordinatePath;
-import org.jeo.geom.Envelopes;
+import org.jeo.feature.Field;
+import org.jeo.filter.Filter;
 import org.jeo.geom.Geom;
 import org.jeo.map.Layer;
 import org.jeo.map.Map;
 import org.jeo.map.RGB;
 import org.jeo.map.Rule;
-import org.jeo.map.RuleList;
 import org.jeo.map.Viewport;
 import org.jeo.proj.Proj;
 import org.slf4j.Logger;
@@ -43,7 +47,9 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.PointF;
 import android.graphics.Rect;
+import android.graphics.RectF;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
@@ -69,6 +75,20 @@ public class Renderer {
 
     static Logger LOG = LoggerFactory.getLogger(Renderer.class);
 
+    /** maximum number of features drawn in a single batch */
+    static final int MAX_BATCH = 512;
+
+    /** orders labels by decreasing priority */
+    static final Comparator<Label> PRIORITY = new Comparator<Label>() {
+        @Override
+        public int compare(Label l1, Label l2) {
+            return l2.priority().compareTo(l1.priority());
+        }
+    };
+
+    /** default size below which features are culled, in pixels */
+    public static final float DEFAULT_CULL_SIZE = 1f;
+
     /** the view/map being rendered */
     Viewport view;
     Map map;
@@ -85,6 +105,62 @@ public class Renderer {
     /** label renderer */
     Labeller labeller;
 
+    /** labels collected while rendering, placed once all layers are drawn */
+    List<Label> candidates = new ArrayList<Label>();
+    List<Label> pending = new ArrayList<Label>();
+
+    /** label layouts of the previous frame */
+    LabelCache labelCache = new LabelCache();
+
+    /** text measurements and rendered labels, retained across frames */
+    TextMetrics metrics = new TextMetrics();
+    HaloCache halos = new HaloCache();
+
+    /** geometry clipper */
+    Clipper clipper;
+
+    /** path builder, and reusable path */
+    PathBuilder paths;
+    Path path = new Path();
+
+    /** current batch of features with the same paint */
+    Path batch = new Path();
+    Paint batchPaint;
+    int batchSize;
+
+    /** current batch of dot markers */
+    float[] dots = new float[256];
+    int dotCount;
+
+    /** pre-rendered markers */
+    MarkerAtlas markers = new MarkerAtlas();
+
+    /** mapped point coordinates */
+    float[] points = new float[64];
+
+    /** sub pixel feature culling size, and pixels occupied by culled features per symbolizer */
+    float cullSize = DEFAULT_CULL_SIZE;
+    IdentityHashMap<Symbolizer,BitSet> occupied = new IdentityHashMap<Symbolizer, BitSet>();
+
+    /** cleared pixel maps of previous frames, reused since symbolizers are per frame */
+    List<BitSet> pixelMaps = new ArrayList<BitSet>();
+
+    /** index of drawn features, null unless hit testing is enabled */
+    HitIndex hits;
+
+    /** scratch objects */
+    PointF pt = new PointF();
+    RectF rect = new RectF();
+
+    /** cached style plan */
+    RenderPlan plan;
+
+    /** features buffered for rendering multiple z groups */
+    List<Feature> buffer = new ArrayList<Feature>();
+
+    /** rules compiled for the current render */
+    IdentityHashMap<Rule,Symbolizer> symbolizers = new IdentityHashMap<Rule, Symbolizer>();
+
     public Renderer(Canvas canvas) {
         this.canvas = canvas;
     }
@@ -97,6 +173,53 @@ public class Renderer {
         return labels;
     }
 
+    /**
+     * Sets the size in pixels below which line and polygon features are culled.
+     * <p>
+     * A feature whose screen space envelope is smaller than this size in both dimensions is
+     * drawn as a single point rather than as a path, and dropped entirely if another feature
+     * drawn with the same symbolizer has already been culled to the same pixel. A value of 
+     * <tt>0</tt> disables culling.
+     * </p>
+     */
+    public void setCullSize(float cullSize) {
+        this.cullSize = cullSize;
+    }
+
+    /**
+     * Enables recording of the features drawn, for {@link #identify(float, float, float)}.
+     */
+    public void setHitTesting(boolean enabled) {
+        hits = enabled ? (hits != null ? hits : new HitIndex()) : null;
+    }
+
+    /**
+     * Identifies the features drawn by the last call to {@link #render()} at a point on the 
+     * canvas.
+     * <p>
+     * Hit testing must be enabled with {@link #setHitTesting(boolean)}. Features are matched 
+     * against the canvas space envelope of what was drawn for them, padded by the line or marker
+     * width, so no data is queried.
+     * </p>
+     * <p>
+     * The features are those that were rendered, which only carry the attributes the style 
+     * references when the data source honours {@link Query#fields(String...)}, other attributes
+     * may be <code>null</code>. Callers needing all attributes should query the layer again for
+     * the returned features.
+     * </p>
+     * @param x The x canvas coordinate.
+     * @param y The y canvas coordinate.
+     * @param tolerance Distance in pixels from the point features may be.
+     *
+     * @return The features, topmost first.
+     */
+    public List<Feature> identify(float x, float y, float tolerance) {
+        if (hits == null) {
+            throw new IllegalStateException("Hit testing not enabled");
+        }
+        return hits.identify(x, y, tolerance);
+    }
+
     public void init(Viewport view) {
         this.view = view;
         
@@ -106,32 +229,66 @@ public class Renderer {
         tx = new TransformPipeline(view);
         tx.apply(canvas);
 
+        paths = new PathBuilder(view);
+
         // labels
         labels = new LabelIndex();
-        labeller = new Labeller(canvas, tx);
+        labeller = new Labeller(canvas, tx, metrics, halos);
+        labelCache.update(view);
+        candidates.clear();
+
+        symbolizers.clear();
+        for (BitSet pixels : occupied.values()) {
+            pixels.clear();
+            pixelMaps.add(pixels);
+        }
+        occupied.clear();
+
+        if (hits != null) {
+            hits.clear();
+        }
+    }
+
+    /**
+     * Discards the cached {@link RenderPlan}.
+     * <p>
+     * The plan is rebuilt automatically when the style or layers of the map are replaced, this
+     * method only needs to be called when the style has been modified in place. 
+     * </p>
+     */
+    public void invalidate() {
+        plan = null;
+        labelCache.clear();
     }
 
     public void render() {
         LOG.debug("Rendering map at " + view.getBounds());
 
+        if (plan == null || !plan.isValid(map)) {
+            plan = new RenderPlan(map);
+        }
+
+        double zoom = ScaleFilter.zoom(view);
+
         // background
         renderBackground();
-        for (Layer l : map.getLayers()) {
+        for (LayerPlan lp : plan.getLayers()) {
+            Layer l = lp.getLayer();
             if (!l.isVisible()) {
                 continue;
             }
 
             Dataset data = l.getData();
-            RuleList rules =
-                map.getStyle().getRules().selectById(l.getName(), true).flatten();
-            
             if (data instanceof VectorData) {
-                for (RuleList ruleList : rules.zgroup()) {
-                    render((VectorData)data, ruleList);
+                List<RuleSelector> groups = lp.getGroups(zoom);
+                if (groups.isEmpty()) {
+                    // no rules active at this scale, don't bother querying
+                    continue;
                 }
+                render((VectorData)data, groups, lp.getClusterer());
             }
             else {
-                render((TileSet)data, rules);
+                render((TileSet)data, lp.getCollapsedRule());
             }
 
         }
@@ -139,10 +296,14 @@ public class Renderer {
         //labels
         renderLabels();
         tx.reset(canvas);
+
+        if (hits != null) {
+            hits.build(view.getWidth(), view.getHeight());
+        }
         LOG.debug("Rendering complete");
     }
 
-    void render(VectorData data, RuleList rules) {
+    void render(VectorData data, List<RuleSelector> groups, PointClusterer clusterer) {
         try {
             Query q = new Query().bounds(view.getBounds());
 
@@ -157,26 +318,102 @@ public class Renderer {
                     "Layer "+data.getName()+" specifies no projection, assuming map projection");
             }
 
-            for (Feature f : data.cursor(q)) {
-                RuleList rs = rules.match(f);
-                if (rs.isEmpty()) {
-                    continue;
+            if (clusterer != null) {
+                // rules apply to the clusters rather than the features, so can't be pushed down
+                List<Feature> clusters = clusterer.cluster(data, q, view);
+                for (RuleSelector selector : groups) {
+                    render(clusters, selector);
                 }
-              
-                Rule r = rules.match(f).collapse();
-                if (r != null) {
-                    draw(f, r);
+                return;
+            }
+
+            // push rule filters and attributes down to the data source
+            constrain(q, data, groups);
+
+            if (groups.size() == 1) {
+                render(data.cursor(q), groups.get(0));
+                return;
+            }
+
+            // multiple z groups, read the features once and replay them for each group
+            Cursor<Feature> cursor = data.cursor(q);
+            try {
+                while (cursor.hasNext()) {
+                    buffer.add(cursor.next());
                 }
             }
+            finally {
+                cursor.close();
+            }
+
+            try {
+                for (RuleSelector selector : groups) {
+                    render(buffer, selector);
+                }
+            }
+            finally {
+                buffer.clear();
+            }
         } catch (IOException e) {
             LOG.error("Error querying layer " + data.getName(), e);
         }
     }
 
-    void render(TileSet data, RuleList rules) {
+    void constrain(Query q, VectorData data, List<RuleSelector> groups) throws IOException {
+        Filter filter = null;
+        Set<String> props = new LinkedHashSet<String>();
+
+        for (RuleSelector sel : groups) {
+            Filter f = sel.getFilter();
+            if (filter != Filter.TRUE) {
+                filter = filter == null || f == Filter.TRUE ? f : filter.or(f);
+            }
+
+            if (props != null) {
+                Set<String> p = sel.getProperties();
+                if (p != null) {
+                    props.addAll(p);
+                }
+                else {
+                    props = null;
+                }
+            }
+        }
+
+        if (filter != null && filter != Filter.TRUE &&
+            RuleFilters.isSupported(filter, data.getSchema())) {
+            q.filter(filter);
+        }
+
+        if (props != null) {
+            // always need the geometry
+            Field geom = data.getSchema().geometry();
+            if (geom != null) {
+                props.add(geom.getName());
+            }
+            q.fields(props.toArray(new String[props.size()]));
+        }
+    }
+
+    void render(Iterable<Feature> features, RuleSelector selector) {
+        // features are drawn in canvas space, see PathBuilder
         tx.reset(canvas);
+        try {
+            for (Feature f : features) {
+                Rule r = selector.select(f);
+                if (r != null) {
+                    draw(f, r);
+                }
+            }
+        }
+        finally {
+            flush();
+            tx.apply(canvas);
+        }
+    }
 
-        Rule rule = rules.collapse();
+    void render(TileSet data, Rule rule) {
+        tx.reset(canvas);
 
         try {
             TilePyramid pyr = data.getPyramid();
@@ -243,15 +480,14 @@ public class Renderer {
     }
 
     void renderBackground() {
-        tx.reset(canvas);
-
-        RuleList rules = map.getStyle().getRules().selectByName("Map", false);
-        if (rules.isEmpty()) {
+        Rule rule = plan.getBackground();
+        if (rule == null) {
             //nothing to do
             return;
         }
 
-        Rule rule = rules.collapse();
+        tx.reset(canvas);
+
         RGB bgColor = rule.color(map, BACKGROUND_COLOR, null);
         if (bgColor != null) {
             bgColor = bgColor.alpha(rule.number(map, OPACITY, 1f));
@@ -266,144 +502,412 @@ public class Renderer {
     }
 
     void renderLabels() {
+        placeLabels();
+
         for (Label l : labels.all()) {
             labeller.render(l);
         }
     }
 
+    /**
+     * Places the candidate labels greedily in order of decreasing priority, see 
+     * {@link LabelIndex#place(Label)}.
+     * <p>
+     * Line labels are merged first, see {@link LineLabelMerger}. The sort is stable so labels 
+     * of equal priority are placed in the order they were collected. Labels placed in the 
+     * previous frame away from the newly exposed area keep their place, and layouts of the 
+     * previous frame are reused, see {@link LabelCache}.
+     * </p>
+     */
+    void placeLabels() {
+        // join lines split into many parts before labelling them
+        new LineLabelMerger(view.iscaleX(), view.getBounds()).merge(candidates);
+
+        Collections.sort(candidates, PRIORITY);
+
+        for (Label l : candidates) {
+            switch(labelCache.restore(l)) {
+            case LabelCache.KEPT:
+                labels.add(l);
+                labelCache.put(l, true, true);
+                break;
+            case LabelCache.LAID_OUT:
+                pending.add(l);
+                break;
+            case LabelCache.REJECTED:
+                labelCache.put(l, false, false);
+                break;
+            default:
+                if (labeller.layout(l)) {
+                    pending.add(l);
+                }
+                else {
+                    labelCache.put(l, false, false);
+                }
+            }
+        }
+
+        for (Label l : pending) {
+            labelCache.put(l, true, labels.place(l));
+        }
+
+        candidates.clear();
+        pending.clear();
+    }
+
+    Symbolizer symbolizer(Rule rule) {
+        Symbolizer sym = symbolizers.get(rule);
+        if (sym == null) {
+            sym = new Symbolizer(rule);
+            symbolizers.put(rule, sym);
+        }
+        return sym;
+    }
+
     void draw(Feature f, Rule rule) {
         Geometry g = f.geometry();
         if (g == null) {
             return;
         }
 
-        g = clipGeometry(g);
+        Symbolizer sym = symbolizer(rule);
+
+        Geom.Type type = Geom.Type.from(g);
+        if (type != Geom.Type.POINT && type != Geom.Type.MULTIPOINT && cull(f, sym, g)) {
+            return;
+        }
+
+        g = clipGeometry(g, f, sym);
         if (g.isEmpty()) {
             return;
         }
 
-        switch(Geom.Type.from(g)) {
+        if (hits != null) {
+            hit(f, sym, g);
+        }
+
+        switch(type) {
         case POINT:
         case MULTIPOINT:
-            drawPoint(f, rule);
+            drawPoint(f, sym, g);
             return;
         case LINESTRING:
         case MULTILINESTRING:
-            drawLine(f, rule, g);
+            drawLine(f, sym, g);
             return;
         case POLYGON:
         case MULTIPOLYGON:
-            drawPolygon(f, rule, g);
+            drawPolygon(f, sym, g);
             return;
         default:
             throw new UnsupportedOperationException();
         }
     }
 
-    Geometry clipGeometry(Geometry g) {
-        // TODO: doing a full intersection is sub-optimal, look at a more efficient clipping 
-        // algorithm, like cohen-sutherland
-        return g.intersection(Envelopes.toPolygon(view.getBounds()));
-    }
+    /**
+     * Culls a line or polygon that is smaller than the cull size, see {@link #setCullSize(float)}.
+     *
+     * @return <code>true</code> if the feature was culled and needs no further drawing.
+     */
+    boolean cull(Feature f, Symbolizer sym, Geometry g) {
+        if (cullSize <= 0) {
+            return false;
+        }
 
-    void drawPoint(Feature f, Rule rule) {
-        // markers drawn in pixel space
-        tx.reset(canvas);
+        Envelope e = g.getEnvelopeInternal();
+        if (e.getWidth() / view.iscaleX() >= cullSize ||
+            e.getHeight() / view.iscaleY() >= cullSize) {
+            return false;
+        }
 
-        float width = rule.number(f, MARKER_WIDTH, 10f);
-        float height = rule.number(f, MARKER_HEIGHT, width);
+        tx.getWorldToCanvas().map((e.getMinX() + e.getMaxX()) / 2d, 
+            (e.getMinY() + e.getMaxY()) / 2d, pt);
 
-        Paint fillPaint = markFillPaint(f, rule);
-        Paint linePaint = markLinePaint(f, rule);
-        
-        Geometry point = f.geometry();
-
-        if (fillPaint != null) {
-            CoordinatePath path = 
-                CoordinatePath.create(point).generalize(view.iscaleX(),view.iscaleY());
-            while(path.hasNext()) {
-                Coordinate c = path.next();
-                canvas.drawOval(
-                    rectFromCenter(tx.getWorldToCanvas().map(c), width, height), fillPaint);
+        int w = view.getWidth();
+        int h = view.getHeight();
+        int x = (int) Math.floor(pt.x);
+        int y = (int) Math.floor(pt.y);
+        if (x < 0 || y < 0 || x >= w || y >= h) {
+            // off the canvas
+            return true;
+        }
+
+        BitSet pixels = occupied.get(sym);
+        if (pixels == null) {
+            pixels = pixelMaps.isEmpty() ? 
+                new BitSet(w * h) : pixelMaps.remove(pixelMaps.size() - 1);
+            occupied.put(sym, pixels);
+        }
+
+        int i = y * w + x;
+        if (pixels.get(i)) {
+            // already drawn a feature with this symbolizer here
+            return true;
+        }
+        pixels.set(i);
+
+        // polygons are drawn as a dot of their fill, falling back to their outline
+        Paint p;
+        Geom.Type type = Geom.Type.from(g);
+        boolean polygon = type == Geom.Type.POLYGON || type == Geom.Type.MULTIPOLYGON;
+        if (polygon) {
+            p = sym.polyFillPaint(f);
+            if (p == null) {
+                p = sym.polyLinePaint(f);
             }
         }
+        else {
+            p = sym.linePaint(f);
+        }
+        if (p != null && markers.supports(p, null)) {
+            points[0] = pt.x;
+            points[1] = pt.y;
+            float size = Math.max(1f, p.getStrokeWidth());
+            dots(points, 1, markers.dotPaint(p, size));
+
+            if (hits != null) {
+                float r = size / 2f;
+                hits.add(f, pt.x - r, pt.y - r, pt.x + r, pt.y + r);
+            }
+        }
+        else if (p != null) {
+            // draw as a path
+            return false;
+        }
 
-        if (linePaint != null) {
-            CoordinatePath path = 
-                CoordinatePath.create(point).generalize(view.iscaleX(),view.iscaleY());
-            while(path.hasNext()) {
-                Coordinate c = path.next();
-                canvas.drawOval(
-                    rectFromCenter(tx.getWorldToCanvas().map(c), width, height), linePaint);
+        // labels, lines too small to draw are too small to label along
+        if (polygon) {
+            String label = sym.getRule().eval(f, TEXT_NAME, String.class);
+            if (label != null) {
+                createPointLabel(label, sym, f, g);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the canvas space envelope of a drawn feature in the hit index.
+     */
+    void hit(Feature f, Symbolizer sym, Geometry g) {
+        Envelope e = g.getEnvelopeInternal();
+        float pad = Math.max(sym.number(f, LINE_WIDTH, 1f), sym.number(f, MARKER_WIDTH, 0f)) / 2f;
+
+        // y axis is flipped, see PathBuilder
+        double scx = view.scaleX(), scy = view.scaleY();
+        float x0 = (float) (e.getMinX() * scx + view.translateX());
+        float x1 = (float) (e.getMaxX() * scx + view.translateX());
+        float y0 = (float) (-e.getMaxY() * scy + view.translateY());
+        float y1 = (float) (-e.getMinY() * scy + view.translateY());
+
+        hits.add(f, x0 - pad, y0 - pad, x1 + pad, y1 + pad);
+    }
+
+    Geometry clipGeometry(Geometry g, Feature f, Symbolizer sym) {
+        // pad the clip rectangle by the stroke/marker size so that strokes don't show the
+        // clip boundary 
+        float pad = Math.max(sym.number(f, LINE_WIDTH, 1f), sym.number(f, MARKER_WIDTH, 0f));
+        pad += 1f;
+
+        Envelope bounds = new Envelope(view.getBounds());
+        bounds.expandBy(pad * view.iscaleX(), pad * view.iscaleY());
+
+        if (clipper == null || !clipper.getBounds().equals(bounds)) {
+            clipper = new Clipper(bounds);
+        }
+        return clipper.clip(g);
+    }
+
+    void drawPoint(Feature f, Symbolizer sym, Geometry g) {
+        Rule rule = sym.getRule();
+
+        float width = sym.number(f, MARKER_WIDTH, 10f);
+        float height = sym.number(f, MARKER_HEIGHT, width);
+
+        Paint fillPaint = sym.markFillPaint(f);
+        Paint linePaint = sym.markLinePaint(f);
+
+        if (fillPaint != null || linePaint != null) {
+            // map all the points in bulk
+            int n = g.getNumGeometries();
+            if (points.length < 2 * n) {
+                points = new float[2 * n];
+            }
+            for (int i = 0; i < n; i++) {
+                Coordinate c = g.getGeometryN(i).getCoordinate();
+                points[2*i] = (float) c.x;
+                points[2*i+1] = (float) c.y;
+            }
+            tx.getWorldToCanvas().mapPoints(points, 0, points, 0, n);
+
+            if (!markers.supports(fillPaint, linePaint)) {
+                // draw directly
+                flush();
+                for (int i = 0; i < n; i++) {
+                    pt.set(points[2*i], points[2*i+1]);
+                    rectFromCenter(pt, width, height, rect);
+                    if (fillPaint != null) {
+                        canvas.drawOval(rect, fillPaint);
+                    }
+                    if (linePaint != null) {
+                        canvas.drawOval(rect, linePaint);
+                    }
+                }
+            }
+            else if (markers.isDot(fillPaint, linePaint, width, height)) {
+                dots(points, n, markers.dotPaint(fillPaint, width));
+            }
+            else {
+                flush();
+
+                Bitmap img = markers.marker(fillPaint, linePaint, width, height);
+                float dx = img.getWidth() / 2f, dy = img.getHeight() / 2f;
+                for (int i = 0; i < n; i++) {
+                    canvas.drawBitmap(img, points[2*i] - dx, points[2*i+1] - dy, null);
+                }
             }
         }
 
         // labels
         String label = rule.eval(f, TEXT_NAME, String.class);
         if (label != null) {
-            createPointLabel(label, rule, f, point);
+            createPointLabel(label, sym, f, f.geometry());
         }
-
-        tx.apply(canvas);
     }
 
-    void createPointLabel(String label, Rule rule, Feature f, Geometry g) {
-        PointLabel l = new PointLabel(label, rule, f, g);
+    void createPointLabel(String label, Symbolizer sym, Feature f, Geometry g) {
+        PointLabel l = new PointLabel(label, sym.getRule(), f, g);
 
-        Paint p = labelPaint(f, rule);
+        Paint p = sym.labelPaint(f);
         l.put(Paint.class, p);
+        l.put(Labeller.HALO, sym.haloPaint(f));
 
-        labeller.layout(l, labels);
+        candidates.add(l);
     }
 
-    void drawLine(Feature f, Rule rule, Geometry line) {
-        Path path = path(line);
-        canvas.drawPath(path, linePaint(f, rule, tx.canvasToWorld));
+    void drawLine(Feature f, Symbolizer sym, Geometry line) {
+        batch(line, sym.linePaint(f));
 
         //labels
-        String label = rule.eval(f, TEXT_NAME, String.class);
+        String label = sym.getRule().eval(f, TEXT_NAME, String.class);
         if (label != null) {
-            createLineLabel(label, rule, f, line);
+            createLineLabel(label, sym, f, line);
         }
     }
 
-    void createLineLabel(String label, Rule rule, Feature f, Geometry g) {
-        Paint p = labelPaint(f, rule);
+    /**
+     * Appends a geometry to the current batch, flushing the batch first if it was started 
+     * with a different paint.
+     * <p>
+     * Since paints are shared by {@link Symbolizer} for identical property values consecutive 
+     * features with the same style end up in the same batch and are drawn with a single call.
+     * Features drawn with translucent paints or paints with a transfer mode are drawn on their
+     * own, a batch is composited once as a whole which would change how overlapping features 
+     * look.
+     * </p>
+     */
+    void batch(Geometry g, Paint p) {
+        if (p.getAlpha() < 255 || p.getXfermode() != null) {
+            drawPath(g, p);
+            return;
+        }
 
-        LineLabel l = new LineLabel(label, rule, f, g);
-        l.put(Paint.class, p);
+        if (p != batchPaint) {
+            flush();
+            batchPaint = p;
+        }
 
-        labeller.layout(l, labels);
+        paths.append(g, batch);
+        if (++batchSize >= MAX_BATCH) {
+            flush();
+        }
     }
 
-    void drawPolygon(Feature f, Rule rule, Geometry poly) {
+    /**
+     * Draws a geometry on its own, after the current batch.
+     */
+    void drawPath(Geometry g, Paint p) {
+        flush();
 
-        Paint fill = polyFillPaint(f, rule);
-        Paint line = polyLinePaint(f, rule, tx.canvasToWorld);
+        paths.build(g, path);
+        canvas.drawPath(path, p);
+    }
 
-        if (fill != null) {
-            Path path = path(poly);
-            canvas.drawPath(path, fill);
+    /**
+     * Appends points to the current batch of dot markers, see {@link MarkerAtlas}.
+     */
+    void dots(float[] pts, int n, Paint p) {
+        if (p != batchPaint) {
+            flush();
+            batchPaint = p;
         }
 
-        if (line != null) {
-            Path path = path(poly);
+        if (dots.length < 2 * (dotCount + n)) {
+            float[] tmp = new float[Math.max(2 * dots.length, 2 * (dotCount + n))];
+            System.arraycopy(dots, 0, tmp, 0, 2 * dotCount);
+            dots = tmp;
+        }
+        System.arraycopy(pts, 0, dots, 2 * dotCount, 2 * n);
+        dotCount += n;
+    }
+
+    /**
+     * Draws the current batch.
+     */
+    void flush() {
+        if (batchPaint != null) {
+            if (batchSize > 0) {
+                canvas.drawPath(batch, batchPaint);
+            }
+            if (dotCount > 0) {
+                canvas.drawPoints(dots, 0, 2 * dotCount, batchPaint);
+            }
+        }
+        batch.rewind();
+        batchPaint = null;
+        batchSize = 0;
+        dotCount = 0;
+    }
+
+    void createLineLabel(String label, Symbolizer sym, Feature f, Geometry g) {
+        Paint p = sym.labelPaint(f);
+
+        LineLabel l = new LineLabel(label, sym.getRule(), f, g);
+        l.put(Paint.class, p);
+        l.put(Labeller.HALO, sym.haloPaint(f));
+
+        candidates.add(l);
+    }
+
+    void drawPolygon(Feature f, Symbolizer sym, Geometry poly) {
+
+        Paint fill = sym.polyFillPaint(f);
+        Paint line = sym.polyLinePaint(f);
+
+        if (fill != null && line != null) {
+            // batching fills and outlines separately would break painter's order, draw
+            // directly with the same path for fill and outline
+            flush();
+
+            paths.build(poly, path);
+            canvas.drawPath(path, fill);
             canvas.drawPath(path, line);
         }
+        else if (fill != null) {
+            // fills are not batched, the winding numbers of overlapping rings of different
+            // features with opposite orientation would cancel out
+            drawPath(poly, fill);
+        }
+        else if (line != null) {
+            batch(poly, line);
+        }
 
         // labels
-        String label = rule.eval(f, TEXT_NAME, String.class);
+        String label = sym.getRule().eval(f, TEXT_NAME, String.class);
         if (label != null) {
-            createPointLabel(label, rule, f, poly);
+            createPointLabel(label, sym, f, poly);
         }
 
         //drawPolygon(rp, buf, vpb.buffer(), color(polyFill), gamma, gammaMethod, color(lineColor), 
         //    lineWidth, lineGamma, lineGammaMethod, compOp);
     }
-
-    Path path(Geometry g) {
-        CoordinatePath cpath = 
-            CoordinatePath.create(g).generalize(view.iscaleX(),view.iscaleY());
-        return Graphics.path(cpath);
-    }
 }
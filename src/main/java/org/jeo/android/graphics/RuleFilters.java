@@ -0,0 +1,200 @@
+package org.jeo.android.graphics;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jeo.feature.Field;
+import org.jeo.feature.Schema;
+import org.jeo.filter.Comparison;
+import org.jeo.filter.Expression;
+import org.jeo.filter.Filter;
+import org.jeo.filter.Literal;
+import org.jeo.filter.Logic;
+import org.jeo.filter.Property;
+import org.jeo.map.Rule;
+import org.jeo.map.RuleList;
+import org.jeo.map.Selector;
+
+/**
+ * Derives query constraints from rules.
+ * <p>
+ * {@link #filter(RuleList)} combines the feature part of the selector filters of a list of rules
+ * into a single filter that matches every feature any of the rules could match, suitable for
+ * passing to {@link org.jeo.data.Query#filter(Filter)} so that backends can evaluate it natively.
+ * {@link #properties(RuleList)} determines the attributes the rules reference.
+ * </p>
+ */
+public class RuleFilters {
+
+    /**
+     * Combines the filters of the rules, or'ing them together.
+     * <p>
+     * Comparisons against the zoom level/scale are removed from the filters, since they are not
+     * feature attributes, see {@link ScaleFilter}. If any rule matches all features
+     * {@link Filter#TRUE} is returned.
+     * </p>
+     */
+    public static Filter filter(RuleList rules) {
+        Filter result = null;
+        for (Rule r : rules) {
+            List<Selector> selectors = r.getSelectors();
+            if (selectors == null || selectors.isEmpty()) {
+                return Filter.TRUE;
+            }
+
+            for (Selector sel : selectors) {
+                Filter f = features(sel.getFilter());
+                if (f == null || f == Filter.TRUE) {
+                    return Filter.TRUE;
+                }
+                result = result == null ? f : result.or(f);
+            }
+        }
+
+        return result != null ? result : Filter.TRUE;
+    }
+
+    /**
+     * Strips the scale dependent comparisons from a filter, returning <code>null</code> when
+     * nothing remains.
+     */
+    static Filter features(Filter filter) {
+        if (filter == null || filter == Filter.TRUE) {
+            return null;
+        }
+
+        if (filter instanceof Comparison) {
+            Comparison c = (Comparison) filter;
+            if (ScaleFilter.scale(c.getLeft(), 0) != null ||
+                ScaleFilter.scale(c.getRight(), 0) != null) {
+                return null;
+            }
+            return filter;
+        }
+
+        if (filter instanceof Logic) {
+            Logic logic = (Logic) filter;
+            List<Filter> parts = logic.getParts();
+
+            switch(logic.getType()) {
+            case AND:
+                Filter and = null;
+                for (Filter p : parts) {
+                    Filter f = features(p);
+                    if (f != null) {
+                        and = and == null ? f : and.and(f);
+                    }
+                }
+                return and;
+            case OR:
+                Filter or = null;
+                for (Filter p : parts) {
+                    Filter f = features(p);
+                    if (f == null) {
+                        // one branch matches everything
+                        return null;
+                    }
+                    or = or == null ? f : or.or(f);
+                }
+                return or;
+            case NOT:
+                Filter f = parts.get(0);
+                // only safe to negate if nothing was stripped
+                return features(f) == f ? filter : null;
+            }
+        }
+
+        return filter;
+    }
+
+    /**
+     * Determines the names of the feature attributes referenced by the rules, both in their
+     * filters and their properties.
+     *
+     * @return The attribute names, or <code>null</code> if they could not be determined.
+     */
+    public static Set<String> properties(RuleList rules) {
+        Set<String> props = new LinkedHashSet<String>();
+        for (Rule r : rules) {
+            List<Selector> selectors = r.getSelectors();
+            if (selectors != null) {
+                for (Selector sel : selectors) {
+                    if (!collect(sel.getFilter(), props)) {
+                        return null;
+                    }
+                }
+            }
+
+            for (Object val : r.properties().values()) {
+                if (!collect(val, props)) {
+                    return null;
+                }
+            }
+        }
+        return props;
+    }
+
+    /**
+     * Determines if all the attributes referenced by a filter are in the specified schema.
+     * <p>
+     * Rules may reference attributes a layer lacks, such rules simply don't match. Backends
+     * however may fail when asked to evaluate such a filter natively, so filters for which this
+     * method returns <code>false</code> should be evaluated in memory instead.
+     * </p>
+     */
+    public static boolean isSupported(Filter filter, Schema schema) {
+        Set<String> props = new LinkedHashSet<String>();
+        if (!collect(filter, props)) {
+            return false;
+        }
+
+        Set<String> names = new HashSet<String>();
+        for (Field fld : schema.getFields()) {
+            names.add(fld.getName());
+        }
+        return names.containsAll(props);
+    }
+
+    static boolean collect(Object obj, Set<String> props) {
+        if (obj == null || obj instanceof Literal) {
+            return true;
+        }
+        if (obj instanceof Property) {
+            String prop = ((Property) obj).getProperty();
+            if (!ScaleFilter.ZOOM.equalsIgnoreCase(prop) &&
+                !ScaleFilter.SCALE_DENOMINATOR.equalsIgnoreCase(prop)) {
+                props.add(prop);
+            }
+            return true;
+        }
+        if (obj instanceof Comparison) {
+            Comparison c = (Comparison) obj;
+            return collect(c.getLeft(), props) && collect(c.getRight(), props);
+        }
+        if (obj instanceof Logic) {
+            for (Object p : ((Logic) obj).getParts()) {
+                if (!collect(p, props)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (obj instanceof Filter) {
+            return obj == Filter.TRUE || obj == Filter.FALSE;
+        }
+        if (obj instanceof Collection) {
+            for (Object o : (Collection<?>) obj) {
+                if (!collect(o, props)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // other expressions (functions, etc...) may reference any attribute
+        return !(obj instanceof Expression);
+    }
+}
@@ -0,0 +1,116 @@
+package org.jeo.android.graphics;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.jeo.filter.Filter;
+import org.jeo.map.Rule;
+import org.jeo.map.RuleList;
+
+/**
+ * Selects the rule to apply to a feature from a list of rules.
+ * <p>
+ * The rules are matched against each feature once, and the rule resulting from collapsing the
+ * matched rules is memoized by the set of matched rules. Since features of a layer typically
+ * match a small number of distinct rule combinations this means {@link RuleList#collapse()} is
+ * called once per combination rather than once per feature, and features matching the same
+ * rules receive the same {@link Rule} instance. The latter allows compiled state, like
+ * {@link Symbolizer}, to be cached by rule.
+ * </p>
+ * <p>
+ * Instances are not thread safe.
+ * </p>
+ */
+public class RuleSelector {
+
+    RuleList rules;
+
+    /** position of each rule in the list */
+    IdentityHashMap<Rule,Integer> index;
+
+    /** collapsed rules keyed by the set of matched rules */
+    HashMap<BitSet,Rule> collapsed;
+
+    /** scratch key */
+    BitSet key;
+
+    /** combined filter and referenced attributes of the rules, lazily computed */
+    Filter filter;
+    Set<String> properties;
+    boolean analyzed = false;
+
+    public RuleSelector(RuleList rules) {
+        this.rules = rules;
+
+        index = new IdentityHashMap<Rule, Integer>();
+        int i = 0;
+        for (Rule r : rules) {
+            index.put(r, i++);
+        }
+
+        collapsed = new HashMap<BitSet, Rule>();
+        key = new BitSet(i);
+    }
+
+    /**
+     * The rules being selected from.
+     */
+    public RuleList getRules() {
+        return rules;
+    }
+
+    /**
+     * The combined filter of the rules, see {@link RuleFilters#filter(RuleList)}.
+     */
+    public Filter getFilter() {
+        analyze();
+        return filter;
+    }
+
+    /**
+     * The attributes referenced by the rules, see {@link RuleFilters#properties(RuleList)}.
+     */
+    public Set<String> getProperties() {
+        analyze();
+        return properties;
+    }
+
+    void analyze() {
+        if (!analyzed) {
+            filter = RuleFilters.filter(rules);
+            properties = RuleFilters.properties(rules);
+            analyzed = true;
+        }
+    }
+
+    /**
+     * Selects the rule for the specified object.
+     *
+     * @return The collapsed rule, or <code>null</code> if no rules match.
+     */
+    public Rule select(Object obj) {
+        RuleList matched = rules.match(obj);
+        if (matched.isEmpty()) {
+            return null;
+        }
+
+        key.clear();
+        for (Rule r : matched) {
+            Integer i = index.get(r);
+            if (i == null) {
+                // not one of ours, can't memoize
+                return matched.collapse();
+            }
+            key.set(i);
+        }
+
+        Rule rule = collapsed.get(key);
+        if (rule == null) {
+            rule = matched.collapse();
+            collapsed.put((BitSet) key.clone(), rule);
+        }
+        return rule;
+    }
+}
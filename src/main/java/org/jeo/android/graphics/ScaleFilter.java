@@ -0,0 +1,212 @@
+package org.jeo.android.graphics;
+
+import java.util.List;
+
+import org.jeo.filter.Comparison;
+import org.jeo.filter.Expression;
+import org.jeo.filter.Filter;
+import org.jeo.filter.Literal;
+import org.jeo.filter.Logic;
+import org.jeo.filter.Property;
+import org.jeo.map.Rule;
+import org.jeo.map.Selector;
+import org.jeo.map.Viewport;
+import org.osgeo.proj4j.CoordinateReferenceSystem;
+import org.osgeo.proj4j.proj.LongLatProjection;
+
+/**
+ * Evaluates the scale dependent part of rule filters.
+ * <p>
+ * Rule filters are split into comparisons against the "zoom" or "scale-denominator" of the map,
+ * which can be evaluated once for a viewport, and the rest of the filter which must be evaluated
+ * per feature. {@link #isActive(Rule, double)} evaluates only the former, treating the feature
+ * part as possibly true. A rule that is not active can not match any feature at that zoom level
+ * and can be dropped before any data is queried.
+ * </p>
+ */
+public class ScaleFilter {
+
+    /** resolution of zoom level 0 in spherical mercator, in meters per pixel */
+    static final double ZOOM0_RES = 156543.03392804097;
+
+    /** resolution of zoom level 0 in geographic coordinates, in degrees per pixel */
+    static final double ZOOM0_RES_DEGREES = 360d / 256d;
+
+    /** standardized rendering pixel size, in meters */
+    static final double PIXEL_SIZE = 0.00028;
+
+    static final String ZOOM = "zoom";
+    static final String SCALE_DENOMINATOR = "scale-denominator";
+
+    /**
+     * Computes the zoom level of a viewport, see {@link #zoom0Res(CoordinateReferenceSystem)}.
+     */
+    public static double zoom(Viewport view) {
+        return Math.log(zoom0Res(view.getCRS()) / view.iscaleX()) / Math.log(2);
+    }
+
+    /**
+     * Computes the resolution of zoom level 0 in the units of a coordinate reference system.
+     * <p>
+     * Zoom levels are those of a grid of 256 pixel tiles covering the world. Geographic systems
+     * span 360 degrees, all other systems are assumed to be in meters like spherical mercator.
+     * When the system is unknown spherical mercator is assumed.
+     * </p>
+     */
+    public static double zoom0Res(CoordinateReferenceSystem crs) {
+        if (crs != null && crs.getProjection() instanceof LongLatProjection) {
+            return ZOOM0_RES_DEGREES;
+        }
+        return ZOOM0_RES;
+    }
+
+    /**
+     * Determines if a rule may apply at the specified zoom level.
+     */
+    public static boolean isActive(Rule rule, double zoom) {
+        List<Selector> selectors = rule.getSelectors();
+        if (selectors == null || selectors.isEmpty()) {
+            return true;
+        }
+
+        // selectors are or'ed together
+        for (Selector sel : selectors) {
+            Boolean b = eval(sel.getFilter(), zoom);
+            if (b == null || b) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates the scale dependent part of the filter.
+     *
+     * @return The result, or <code>null</code> when the result depends on the feature.
+     */
+    static Boolean eval(Filter<?> filter, double zoom) {
+        if (filter == null) {
+            return null;
+        }
+        if (filter == Filter.TRUE) {
+            return true;
+        }
+        if (filter == Filter.FALSE) {
+            return false;
+        }
+
+        if (filter instanceof Comparison) {
+            return eval((Comparison<?>) filter, zoom);
+        }
+        if (filter instanceof Logic) {
+            return eval((Logic<?>) filter, zoom);
+        }
+        return null;
+    }
+
+    static Boolean eval(Logic<?> logic, double zoom) {
+        List<? extends Filter<?>> parts = logic.getParts();
+        switch(logic.getType()) {
+        case AND:
+            Boolean and = true;
+            for (Filter<?> f : parts) {
+                Boolean b = eval(f, zoom);
+                if (b == null) {
+                    and = null;
+                }
+                else if (!b) {
+                    return false;
+                }
+            }
+            return and;
+        case OR:
+            Boolean or = false;
+            for (Filter<?> f : parts) {
+                Boolean b = eval(f, zoom);
+                if (b == null) {
+                    or = null;
+                }
+                else if (b) {
+                    return true;
+                }
+            }
+            return or;
+        case NOT:
+            Boolean b = eval(parts.get(0), zoom);
+            return b != null ? !b : null;
+        default:
+            return null;
+        }
+    }
+
+    static Boolean eval(Comparison<?> comp, double zoom) {
+        Expression left = comp.getLeft();
+        Expression right = comp.getRight();
+
+        Double l = scale(left, zoom);
+        Double r = scale(right, zoom);
+
+        if (l != null && right instanceof Literal) {
+            r = number(right);
+        }
+        else if (r != null && left instanceof Literal) {
+            l = number(left);
+        }
+        else {
+            // not a scale comparison
+            return null;
+        }
+
+        if (l == null || r == null) {
+            return null;
+        }
+
+        int c = l.compareTo(r);
+        switch(comp.getType()) {
+        case EQUAL:
+            return c == 0;
+        case NOT_EQUAL:
+            return c != 0;
+        case LESS:
+            return c < 0;
+        case LESS_OR_EQUAL:
+            return c <= 0;
+        case GREATER:
+            return c > 0;
+        case GREATER_OR_EQUAL:
+            return c >= 0;
+        default:
+            return null;
+        }
+    }
+
+    static Double scale(Expression e, double zoom) {
+        if (e instanceof Property) {
+            String prop = ((Property) e).getProperty();
+            if (ZOOM.equalsIgnoreCase(prop)) {
+                // zoom levels are integral
+                return Math.floor(zoom + 0.5);
+            }
+            if (SCALE_DENOMINATOR.equalsIgnoreCase(prop)) {
+                // zoom is normalized across systems, measure it in spherical mercator meters
+                return ZOOM0_RES / Math.pow(2, zoom) / PIXEL_SIZE;
+            }
+        }
+        return null;
+    }
+
+    static Double number(Expression e) {
+        Object val = e.evaluate(null);
+        if (val instanceof Number) {
+            return ((Number) val).doubleValue();
+        }
+        if (val != null) {
+            try {
+                return Double.parseDouble(val.toString());
+            }
+            catch(NumberFormatException ex) {
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,240 @@
+package org.jeo.android.graphics;
+
+import static org.jeo.map.CartoCSS.COMP_OP;
+import static org.jeo.map.CartoCSS.LINE_CAP;
+import static org.jeo.map.CartoCSS.LINE_COLOR;
+import static org.jeo.map.CartoCSS.LINE_COMP_OP;
+import static org.jeo.map.CartoCSS.LINE_DASHARRAY;
+import static org.jeo.map.CartoCSS.LINE_DASH_OFFSET;
+import static org.jeo.map.CartoCSS.LINE_JOIN;
+import static org.jeo.map.CartoCSS.LINE_OPACITY;
+import static org.jeo.map.CartoCSS.LINE_WIDTH;
+import static org.jeo.map.CartoCSS.MARKER_COMP_OP;
+import static org.jeo.map.CartoCSS.MARKER_FILL;
+import static org.jeo.map.CartoCSS.MARKER_FILL_OPACITY;
+import static org.jeo.map.CartoCSS.MARKER_LINE_COLOR;
+import static org.jeo.map.CartoCSS.MARKER_LINE_OPACITY;
+import static org.jeo.map.CartoCSS.MARKER_LINE_WIDTH;
+import static org.jeo.map.CartoCSS.POLYGON_COMP_OP;
+import static org.jeo.map.CartoCSS.POLYGON_FILL;
+import static org.jeo.map.CartoCSS.POLYGON_OPACITY;
+import static org.jeo.map.CartoCSS.TEXT_ALIGN;
+import static org.jeo.map.CartoCSS.TEXT_FILL;
+import static org.jeo.map.CartoCSS.TEXT_HALO_FILL;
+import static org.jeo.map.CartoCSS.TEXT_HALO_RADIUS;
+import static org.jeo.map.CartoCSS.TEXT_SIZE;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.jeo.feature.Feature;
+import org.jeo.filter.Expression;
+import org.jeo.filter.Literal;
+import org.jeo.map.Rule;
+
+import android.graphics.Paint;
+
+/**
+ * A {@link Rule} compiled for a single render.
+ * <p>
+ * On creation the properties of the rule are split into those that are constant and those that
+ * are data driven, ie. those whose value is an expression to be evaluated against the feature.
+ * Paints made up only of constant properties are created once and reused for every feature. For
+ * the other paints only the data driven properties are evaluated per feature, and paints are
+ * cached by the resulting values so features that resolve to the same values share a single
+ * {@link Paint} instance.
+ * </p>
+ * <p>
+ * Paints returned from a symbolizer are shared and must not be modified.
+ * </p>
+ */
+public class Symbolizer {
+
+    /** the kinds of paints, along with the properties used to build them */
+    static enum Kind {
+        LINE(LINE_COLOR, LINE_WIDTH, LINE_JOIN, LINE_CAP, LINE_DASHARRAY, LINE_DASH_OFFSET,
+            LINE_COMP_OP),
+        POLY_FILL(POLYGON_FILL, POLYGON_OPACITY, COMP_OP, POLYGON_COMP_OP),
+        POLY_LINE(LINE_COLOR, LINE_OPACITY, LINE_WIDTH, COMP_OP, LINE_COMP_OP),
+        MARK_FILL(MARKER_FILL, MARKER_FILL_OPACITY, COMP_OP, MARKER_COMP_OP),
+        MARK_LINE(MARKER_LINE_COLOR, MARKER_LINE_OPACITY, MARKER_LINE_WIDTH, COMP_OP,
+            LINE_COMP_OP),
+        LABEL(TEXT_FILL, TEXT_SIZE, TEXT_ALIGN, TEXT_HALO_FILL, TEXT_HALO_RADIUS, 
+            Graphics.TEXT_HALO_RASTERIZER),
+        HALO(TEXT_HALO_FILL, TEXT_HALO_RADIUS, TEXT_SIZE, TEXT_ALIGN, 
+            Graphics.TEXT_HALO_RASTERIZER);
+
+        String[] props;
+
+        Kind(String... props) {
+            this.props = props;
+        }
+    }
+
+    /** maximum number of cached data driven paints */
+    static final int MAX_PAINTS = 256;
+
+    /** placeholder for cached absent paints */
+    static final Paint NONE = new Paint();
+
+    Rule rule;
+
+    /** data driven properties for each paint kind, empty when the paint is constant */
+    String[][] dynamic;
+
+    /** constant paints for each kind */
+    Paint[] frozen;
+
+    /** data driven paints keyed by resolved values */
+    HashMap<List<Object>,Paint> paints;
+
+    /** constant numeric properties */
+    HashMap<String,Float> numbers;
+
+    /**
+     * Compiles a rule.
+     * <p>
+     * Paints are created for drawing in canvas space, stroke widths are not scaled. 
+     * </p>
+     */
+    public Symbolizer(Rule rule) {
+        this.rule = rule;
+
+        Kind[] kinds = Kind.values();
+        dynamic = new String[kinds.length][];
+        frozen = new Paint[kinds.length];
+
+        for (Kind k : kinds) {
+            List<String> dyn = new ArrayList<String>();
+            if (isDynamic("anti-alias")) {
+                dyn.add("anti-alias");
+            }
+            for (String prop : k.props) {
+                if (isDynamic(prop)) {
+                    dyn.add(prop);
+                }
+            }
+            dynamic[k.ordinal()] = dyn.toArray(new String[dyn.size()]);
+        }
+
+        paints = new HashMap<List<Object>, Paint>();
+        numbers = new HashMap<String, Float>();
+    }
+
+    /**
+     * The compiled rule.
+     */
+    public Rule getRule() {
+        return rule;
+    }
+
+    boolean isDynamic(String prop) {
+        Object val = rule.get(prop);
+        return val instanceof Expression && !(val instanceof Literal);
+    }
+
+    public Paint linePaint(Feature f) {
+        return paint(Kind.LINE, f);
+    }
+
+    public Paint polyFillPaint(Feature f) {
+        return paint(Kind.POLY_FILL, f);
+    }
+
+    public Paint polyLinePaint(Feature f) {
+        return paint(Kind.POLY_LINE, f);
+    }
+
+    public Paint markFillPaint(Feature f) {
+        return paint(Kind.MARK_FILL, f);
+    }
+
+    public Paint markLinePaint(Feature f) {
+        return paint(Kind.MARK_LINE, f);
+    }
+
+    public Paint labelPaint(Feature f) {
+        return paint(Kind.LABEL, f);
+    }
+
+    public Paint haloPaint(Feature f) {
+        return paint(Kind.HALO, f);
+    }
+
+    /**
+     * Evaluates a numeric property, caching the value if it is constant.
+     * <p>
+     * Properties the rule does not define are not cached, callers may specify different
+     * defaults for the same property.
+     * </p>
+     */
+    public float number(Feature f, String prop, float def) {
+        Float val = numbers.get(prop);
+        if (val != null) {
+            return val;
+        }
+
+        if (rule.get(prop) == null) {
+            return def;
+        }
+
+        float num = rule.number(f, prop, def);
+        if (!isDynamic(prop)) {
+            numbers.put(prop, num);
+        }
+        return num;
+    }
+
+    Paint paint(Kind kind, Feature f) {
+        int i = kind.ordinal();
+
+        String[] dyn = dynamic[i];
+        if (dyn.length == 0) {
+            Paint p = frozen[i];
+            if (p == null) {
+                p = create(kind, f);
+                frozen[i] = p != null ? p : NONE;
+            }
+            return p != NONE ? p : null;
+        }
+
+        List<Object> key = new ArrayList<Object>(dyn.length + 1);
+        key.add(kind);
+        for (String prop : dyn) {
+            key.add(rule.eval(f, prop, Object.class));
+        }
+
+        Paint p = paints.get(key);
+        if (p == null) {
+            if (paints.size() >= MAX_PAINTS) {
+                // too many distinct values, start over
+                paints.clear();
+            }
+            p = create(kind, f);
+            paints.put(key, p != null ? p : NONE);
+        }
+        return p != NONE ? p : null;
+    }
+
+    Paint create(Kind kind, Feature f) {
+        switch(kind) {
+        case LINE:
+            return Graphics.linePaint(f, rule, null);
+        case POLY_FILL:
+            return Graphics.polyFillPaint(f, rule);
+        case POLY_LINE:
+            return Graphics.polyLinePaint(f, rule, null);
+        case MARK_FILL:
+            return Graphics.markFillPaint(f, rule);
+        case MARK_LINE:
+            return Graphics.markLinePaint(f, rule);
+        case LABEL:
+            return Graphics.labelPaint(f, rule);
+        case HALO:
+            return Graphics.haloPaint(f, rule);
+        default:
+            throw new IllegalArgumentException(kind.name());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.jeo.android.graphics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+/**
+ * Caches text measurements, bounds and character widths, keyed by typeface, text size and text.
+ * <p>
+ * Measurements are in pixels, values returned are shared and must not be modified. The least
+ * recently used entries are discarded once the cache holds {@link #MAX_ENTRIES} entries.
+ * </p>
+ * <p>
+ * Instances are not thread safe.
+ * </p>
+ */
+public class TextMetrics {
+
+    /** maximum number of cached entries */
+    static final int MAX_ENTRIES = 1024;
+
+    /**
+     * Measurement key.
+     */
+    static class Key {
+        Typeface typeface;
+        float size, scaleX;
+        String text;
+
+        Key set(Paint p, String text) {
+            this.typeface = p.getTypeface();
+            this.size = p.getTextSize();
+            this.scaleX = p.getTextScaleX();
+            this.text = text;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = typeface != null ? typeface.hashCode() : 0;
+            h = 31 * h + Float.floatToIntBits(size);
+            h = 31 * h + Float.floatToIntBits(scaleX);
+            h = 31 * h + text.hashCode();
+            return h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) obj;
+            return (typeface == null ? k.typeface == null : typeface.equals(k.typeface)) &&
+                size == k.size && scaleX == k.scaleX && text.equals(k.text);
+        }
+    }
+
+    /**
+     * Measurements of a piece of text.
+     */
+    static class Metrics {
+        Rect bounds;
+        float[] widths;
+    }
+
+    Map<Key,Metrics> cache = new LinkedHashMap<Key,Metrics>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key,Metrics> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /** scratch key for lookups */
+    Key key = new Key();
+
+    /**
+     * The bounds of the text, see {@link Paint#getTextBounds(String, int, int, Rect)}.
+     */
+    public Rect bounds(Paint p, String text) {
+        Metrics m = metrics(p, text);
+        if (m.bounds == null) {
+            m.bounds = new Rect();
+            p.getTextBounds(text, 0, text.length(), m.bounds);
+        }
+        return m.bounds;
+    }
+
+    /**
+     * The widths of the characters of the text, see {@link Paint#getTextWidths(String, float[])}.
+     */
+    public float[] widths(Paint p, String text) {
+        Metrics m = metrics(p, text);
+        if (m.widths == null) {
+            m.widths = new float[text.length()];
+            p.getTextWidths(text, m.widths);
+        }
+        return m.widths;
+    }
+
+    /**
+     * Discards all cached measurements.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    Metrics metrics(Paint p, String text) {
+        Metrics m = cache.get(key.set(p, text));
+        if (m == null) {
+            m = new Metrics();
+            cache.put(new Key().set(p, text), m);
+        }
+        return m;
+    }
+}
@@ -9,6 +9,7 @@ import android.graphics.Matrix;
 import android.graphics.PointF;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Envelope;
 
 /**
@@ -18,9 +19,10 @@ import com.vividsolutions.jts.geom.Envelope;
  */
 public class TransformPipeline implements Viewport.Listener {
 
-    Transform worldToCanvas;
-    Transform canvasToWorld;
-    Transform canvasToScreen;
+    Transform worldToCanvas = new Transform();
+    Transform canvasToWorld = new Transform();
+    Transform canvasToScreen = new Transform();
+    Transform worldToScreen = new Transform();
 
     public TransformPipeline(Viewport view) {
         view.bind(this);
@@ -28,14 +30,20 @@ public class TransformPipeline implements Viewport.Listener {
         update(view);
     }
 
+    /**
+     * Updates the transforms from the viewport.
+     * <p>
+     * The transforms are updated in place, references obtained from {@link #getWorldToCanvas()} 
+     * and {@link #getCanvasToWorld()} remain valid.
+     * </p>
+     */
     public void update(Viewport view) {
         // transformation from map coordinates to canvas coordinates
-        worldToCanvas = new Transform();
+        worldToCanvas.reset();
         worldToCanvas.preScale((float)view.scaleX(), (float)-view.scaleY());
         worldToCanvas.postTranslate((float)view.translateX(), (float)view.translateY());
 
         // inverse of above
-        canvasToWorld = new Transform();
         worldToCanvas.invert(canvasToWorld);
     }
 
@@ -67,9 +75,9 @@ public class TransformPipeline implements Viewport.Listener {
     }
 
     public void apply(Canvas canvas) {
-        canvasToScreen = new Transform(canvas.getMatrix());
+        canvas.getMatrix(canvasToScreen);
 
-        Transform worldToScreen = new Transform(canvasToScreen);
+        worldToScreen.set(canvasToScreen);
         worldToScreen.preConcat(worldToCanvas);
 
         canvas.setMatrix(worldToScreen);
@@ -129,15 +137,23 @@ public class TransformPipeline implements Viewport.Listener {
     }
 
     @Override
-    public void onCRSChanged(Viewport view, CoordinateReferenceSystem crs, CoordinateReferenceSystem old) {
+    public void onCRSChanged(Viewport view, CoordinateReferenceSystem crs,
+        CoordinateReferenceSystem old) {
     }
 
     /**
      * Extension of {@link Matrix} providing methods to transform between {@link PointF} and 
      * {@link Coordinate} objects. 
+     * <p>
+     * The methods that accept a target object or array do not allocate, they are not thread 
+     * safe. The methods returning a new object are safe to call concurrently.
+     * </p>
      */
     public static class Transform extends Matrix {
 
+        /** scratch point */
+        float[] pt = new float[2];
+
         public Transform() {
             super();
         }
@@ -152,10 +168,86 @@ public class TransformPipeline implements Viewport.Listener {
             return new PointF(pt[0], pt[1]);
         }
 
+        /**
+         * Maps a coordinate into the specified point.
+         *
+         * @return The point <tt>p</tt>.
+         */
+        public PointF map(Coordinate c, PointF p) {
+            return map(c.x, c.y, p);
+        }
+
+        /**
+         * Maps an x/y ordinate pair into the specified point.
+         *
+         * @return The point <tt>p</tt>.
+         */
+        public PointF map(double x, double y, PointF p) {
+            pt[0] = (float) x;
+            pt[1] = (float) y;
+            mapPoints(pt);
+            p.set(pt[0], pt[1]);
+            return p;
+        }
+
         public Coordinate map(PointF p) {
             float[] pt = new float[]{p.x, p.y};
             mapPoints(pt);
             return new Coordinate(pt[0], pt[1]);
         }
+
+        /**
+         * Maps a point into the specified coordinate.
+         *
+         * @return The coordinate <tt>c</tt>.
+         */
+        public Coordinate map(PointF p, Coordinate c) {
+            pt[0] = p.x;
+            pt[1] = p.y;
+            mapPoints(pt);
+            c.x = pt[0];
+            c.y = pt[1];
+            return c;
+        }
+
+        /**
+         * Maps a sequence of coordinates in bulk.
+         *
+         * @param cs The coordinates to map.
+         * @param dst The destination array of interleaved x/y values, if <code>null</code> or 
+         *   too small a new array is allocated.
+         *
+         * @return The destination array, holding <tt>2 * cs.size()</tt> values.
+         */
+        public float[] map(CoordinateSequence cs, float[] dst) {
+            int n = cs.size();
+            if (dst == null || dst.length < 2 * n) {
+                dst = new float[2 * n];
+            }
+
+            for (int i = 0; i < n; i++) {
+                dst[2*i] = (float) cs.getX(i);
+                dst[2*i+1] = (float) cs.getY(i);
+            }
+            mapPoints(dst, 0, dst, 0, n);
+            return dst;
+        }
+
+        /**
+         * Maps an array of coordinates in bulk, see {@link #map(CoordinateSequence, float[])}.
+         */
+        public float[] map(Coordinate[] coords, float[] dst) {
+            int n = coords.length;
+            if (dst == null || dst.length < 2 * n) {
+                dst = new float[2 * n];
+            }
+
+            for (int i = 0; i < n; i++) {
+                dst[2*i] = (float) coords[i].x;
+                dst[2*i+1] = (float) coords[i].y;
+            }
+            mapPoints(dst, 0, dst, 0, n);
+            return dst;
+        }
     }
 }
@@ -28,9 +28,12 @@ public class MBTileSet implements TileSet, FileData {
 
     static final String METADATA = "metadata";
     static final String TILES = "tiles";
+    static final String MAP = "map";
+    static final String IMAGES = "images";
 
     static final String PNG = "image/png";
     static final String JPEG = "image/jpeg";
+    static final String WEBP = "image/webp";
 
     File file;
     SQLiteDatabase db;
@@ -49,12 +52,23 @@ public class MBTileSet implements TileSet, FileData {
     }
 
     String queryForTileFormat() {
+        if (!exists(METADATA, "table")) {
+            // new file, no tiles written yet
+            return PNG;
+        }
+
         android.database.Cursor c = db.query(METADATA, new String[]{"value"}, "name = ?", 
             new String[]{"format"}, null, null, null);
         try {
             if (c.moveToNext()) {
                 String format = c.getString(0);
-                return "jpg".equalsIgnoreCase(format) || JPEG.equalsIgnoreCase(format) ? JPEG : PNG;
+                if ("jpg".equalsIgnoreCase(format) || JPEG.equalsIgnoreCase(format)) {
+                    return JPEG;
+                }
+                if ("webp".equalsIgnoreCase(format) || WEBP.equalsIgnoreCase(format)) {
+                    return WEBP;
+                }
+                return PNG;
             }
         }
         finally {
@@ -64,6 +78,40 @@ public class MBTileSet implements TileSet, FileData {
         return PNG;
     }
 
+    /**
+     * Determines if a table or view of the specified name exists in the database.
+     *
+     * @param name The table/view name.
+     * @param type The object type, one of "table" or "view", or <code>null</code> for either.
+     */
+    boolean exists(String name, String type) {
+        String sql = "SELECT type FROM sqlite_master WHERE name = ?";
+        android.database.Cursor c = db.rawQuery(sql, new String[]{name});
+        try {
+            while (c.moveToNext()) {
+                if (type == null || type.equalsIgnoreCase(c.getString(0))) {
+                    return true;
+                }
+            }
+        }
+        finally {
+            c.close();
+        }
+        return false;
+    }
+
+    /**
+     * Returns a new writer for adding tiles to this tile set.
+     * <p>
+     * If the underlying file is empty the writer creates the deduplicated "map"/"images" 
+     * layout, see {@link MBTileWriter} for details. The caller is responsible for closing the 
+     * writer when done. 
+     * </p>
+     */
+    public MBTileWriter writer() {
+        return new MBTileWriter(this);
+    }
+
     @Override
     public File getFile() {
         return file;
@@ -179,8 +227,24 @@ public class MBTileSet implements TileSet, FileData {
         return null;
     }
     
+    /**
+     * Determines if a tile exists without reading its data.
+     */
+    public boolean contains(long z, long x, long y) {
+        String sql = String.format("SELECT 1 FROM %s WHERE zoom_level = %d " +
+            "AND tile_column = %d AND tile_row = %d", TILES, z, x, y);
+        android.database.Cursor c = db.rawQuery(sql, null);
+        try {
+            return c.moveToNext();
+        }
+        finally {
+            c.close();
+        }
+    }
+
     @Override
-    public Cursor<Tile> read(long z1, long z2, long x1, long x2, long y1, long y2) throws IOException {
+    public Cursor<Tile> read(long z1, long z2, long x1, long x2, long y1, long y2)
+        throws IOException {
         final List<String> q = new ArrayList<String>();
         
         if (z1 > -1) {
@@ -0,0 +1,290 @@
+package org.jeo.android.mbtiles;
+
+import static java.lang.String.format;
+import static org.jeo.android.mbtiles.MBTileSet.IMAGES;
+import static org.jeo.android.mbtiles.MBTileSet.MAP;
+import static org.jeo.android.mbtiles.MBTileSet.METADATA;
+import static org.jeo.android.mbtiles.MBTileSet.TILES;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jeo.data.Tile;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Writes tiles to an MBTiles file.
+ * <p>
+ * When writing to a new file the writer creates the deduplicated layout in which tile images
+ * are stored once in an "images" table keyed by a hash of the image content, and the "map"
+ * table references them by zoom/column/row. A "tiles" view joins the two so that readers,
+ * including {@link MBTileSet}, see the standard flat MBTiles structure. When the file already
+ * contains a flat "tiles" table tiles are written to it directly.
+ * </p>
+ * <p>
+ * Tiles are buffered and inserted in batches, each batch within a single transaction. Callers
+ * must call {@link #close()} (or {@link #flush()}) to ensure all tiles are written. Rewriting an
+ * existing tile leaves its previous image unreferenced, such images are deleted on
+ * {@link #close()}.
+ * </p>
+ * <p>
+ * Usage:
+ * <pre><code>
+ * MBTileSet tiles = MBTiles.open(file);
+ * MBTileWriter w = tiles.writer();
+ * w.metadata("format", "png");
+ * for (Tile t : ...) {
+ *   w.put(t);
+ * }
+ * w.close();
+ * </code></pre>
+ * </p>
+ */
+public class MBTileWriter implements Closeable {
+
+    /** default number of tiles per transaction */
+    static final int DEFAULT_BATCH_SIZE = 256;
+
+    MBTileSet tileset;
+    SQLiteDatabase db;
+
+    /** flag indicating deduplicated map/images layout */
+    boolean dedup;
+
+    /** flag indicating tiles were written to the map table since the last prune */
+    boolean written;
+
+    /** pending tiles */
+    List<Tile> batch;
+    int batchSize = DEFAULT_BATCH_SIZE;
+
+    MessageDigest digest;
+
+    MBTileWriter(MBTileSet tileset) {
+        this.tileset = tileset;
+        this.db = tileset.db;
+        this.batch = new ArrayList<Tile>();
+
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        init();
+    }
+
+    /**
+     * Sets the number of tiles written per transaction.
+     */
+    public MBTileWriter batchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Returns <code>true</code> if the writer is using the deduplicated map/images layout.
+     */
+    public boolean isDeduplicated() {
+        return dedup;
+    }
+
+    void init() {
+        db.beginTransaction();
+        try {
+            db.execSQL(format("CREATE TABLE IF NOT EXISTS %s (name TEXT, value TEXT)", METADATA));
+            db.execSQL(format("CREATE UNIQUE INDEX IF NOT EXISTS %s_name ON %s (name)",
+                METADATA, METADATA));
+
+            if (tileset.exists(TILES, "table")) {
+                // existing flat layout
+                dedup = false;
+            }
+            else {
+                dedup = true;
+
+                db.execSQL(format("CREATE TABLE IF NOT EXISTS %s (zoom_level INTEGER, " +
+                    "tile_column INTEGER, tile_row INTEGER, tile_id TEXT)", MAP));
+                db.execSQL(format("CREATE UNIQUE INDEX IF NOT EXISTS %s_index ON %s " +
+                    "(zoom_level, tile_column, tile_row)", MAP, MAP));
+
+                db.execSQL(format(
+                    "CREATE TABLE IF NOT EXISTS %s (tile_data BLOB, tile_id TEXT)", IMAGES));
+                db.execSQL(format("CREATE UNIQUE INDEX IF NOT EXISTS %s_id ON %s (tile_id)",
+                    IMAGES, IMAGES));
+
+                db.execSQL(format("CREATE VIEW IF NOT EXISTS %s AS SELECT " +
+                    "m.zoom_level AS zoom_level, m.tile_column AS tile_column, " +
+                    "m.tile_row AS tile_row, i.tile_data AS tile_data " +
+                    "FROM %s m JOIN %s i ON i.tile_id = m.tile_id", TILES, MAP, IMAGES));
+            }
+            db.setTransactionSuccessful();
+        }
+        finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Sets a metadata value, replacing any existing value of the same name.
+     */
+    public void metadata(String name, String value) throws IOException {
+        try {
+            db.execSQL(format("INSERT OR REPLACE INTO %s (name, value) VALUES (?,?)", METADATA),
+                new Object[]{name, value});
+        }
+        catch(SQLException e) {
+            throw new IOException(e);
+        }
+
+        if ("format".equals(name)) {
+            tileset.tileFormat = tileset.queryForTileFormat();
+        }
+    }
+
+    /**
+     * Queues a tile for writing, flushing the current batch if full.
+     */
+    public void put(Tile t) throws IOException {
+        batch.add(t);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes all pending tiles in a single transaction.
+     */
+    public void flush() throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        db.beginTransaction();
+        try {
+            if (dedup) {
+                writeDedup();
+            }
+            else {
+                writeFlat();
+            }
+            db.setTransactionSuccessful();
+        }
+        catch(SQLException e) {
+            throw new IOException(e);
+        }
+        finally {
+            db.endTransaction();
+            batch.clear();
+        }
+    }
+
+    void writeDedup() {
+        SQLiteStatement img = db.compileStatement(
+            format("INSERT OR IGNORE INTO %s (tile_id, tile_data) VALUES (?,?)", IMAGES));
+        SQLiteStatement map = db.compileStatement(format("INSERT OR REPLACE INTO %s " +
+            "(zoom_level, tile_column, tile_row, tile_id) VALUES (?,?,?,?)", MAP));
+        try {
+            for (Tile t : batch) {
+                byte[] data = t.getData();
+                if (data == null) {
+                    continue;
+                }
+
+                String id = hash(digest, data);
+
+                img.bindString(1, id);
+                img.bindBlob(2, data);
+                img.execute();
+
+                map.bindLong(1, t.getZ());
+                map.bindLong(2, t.getX());
+                map.bindLong(3, t.getY());
+                map.bindString(4, id);
+                map.execute();
+
+                written = true;
+            }
+        }
+        finally {
+            img.close();
+            map.close();
+        }
+    }
+
+    void writeFlat() {
+        SQLiteStatement st = db.compileStatement(format("INSERT OR REPLACE INTO %s " +
+            "(zoom_level, tile_column, tile_row, tile_data) VALUES (?,?,?,?)", TILES));
+        try {
+            for (Tile t : batch) {
+                if (t.getData() == null) {
+                    continue;
+                }
+
+                st.bindLong(1, t.getZ());
+                st.bindLong(2, t.getX());
+                st.bindLong(3, t.getY());
+                st.bindBlob(4, t.getData());
+                st.execute();
+            }
+        }
+        finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Computes the id of a tile image, the hex encoded digest of its content.
+     */
+    static String hash(MessageDigest digest, byte[] data) {
+        byte[] md5 = digest.digest(data);
+
+        StringBuilder sb = new StringBuilder(md5.length * 2);
+        for (byte b : md5) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Flushes any pending tiles.
+     * <p>
+     * Unreferenced images are deleted, the underlying tile set is not closed.
+     * </p>
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        prune();
+    }
+
+    /**
+     * Deletes images no longer referenced from the map table, left behind when tiles are 
+     * rewritten.
+     */
+    void prune() throws IOException {
+        if (!written) {
+            return;
+        }
+
+        try {
+            db.execSQL(format("DELETE FROM %s WHERE tile_id NOT IN (SELECT tile_id FROM %s)", 
+                IMAGES, MAP));
+        }
+        catch(SQLException e) {
+            throw new IOException(e);
+        }
+        written = false;
+    }
+}
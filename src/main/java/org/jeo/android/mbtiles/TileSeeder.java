@@ -0,0 +1,286 @@
+package org.jeo.android.mbtiles;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jeo.android.graphics.MetaTiler;
+import org.jeo.android.graphics.Renderer;
+import org.jeo.data.Tile;
+import org.jeo.map.Map;
+import org.jeo.proj.Proj;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Pre-renders a {@link Map} into an MBTiles tile set.
+ * <p>
+ * Tiles are rendered with {@link Renderer} into offscreen bitmaps on a pool of worker threads,
+ * one {@link MetaTiler} per worker, so that each block of tiles is queried and labelled once.
+ * Encoded tiles are handed back to the calling thread which writes them through a single
+ * {@link MBTileWriter}. Tiles already present in the tile set are skipped so an interrupted seed
+ * can be resumed by running it again.
+ * </p>
+ * <p>
+ * Usage:
+ * <pre><code>
+ * Map map = ...;
+ * MBTileSet tiles = MBTiles.open(file);
+ *
+ * new TileSeeder(map, tiles).zoom(0, 14).bounds(env).format(TileSeeder.Format.PNG).seed();
+ * </code></pre>
+ * </p>
+ */
+public class TileSeeder {
+
+    static Logger LOG = LoggerFactory.getLogger(TileSeeder.class);
+
+    /**
+     * Tile image format.
+     */
+    public static enum Format {
+        PNG(CompressFormat.PNG, MBTileSet.PNG, "png"),
+        JPEG(CompressFormat.JPEG, MBTileSet.JPEG, "jpg"),
+        WEBP(CompressFormat.WEBP, MBTileSet.WEBP, "webp");
+
+        CompressFormat compress;
+        String mimeType;
+        String ext;
+
+        Format(CompressFormat compress, String mimeType, String ext) {
+            this.compress = compress;
+            this.mimeType = mimeType;
+            this.ext = ext;
+        }
+    }
+
+    Map map;
+    MBTileSet tiles;
+
+    int minZoom = 0, maxZoom = 0;
+    Envelope bounds;
+
+    Format format = Format.PNG;
+    int quality = 90;
+
+    int tileSize = 256;
+    int metaSize = MetaTiler.DEFAULT_META_SIZE;
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    public TileSeeder(Map map, MBTileSet tiles) {
+        this.map = map;
+        this.tiles = tiles;
+    }
+
+    /**
+     * Sets the range of zoom levels to seed, inclusive.
+     */
+    public TileSeeder zoom(int min, int max) {
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("invalid zoom range: " + min + ", " + max);
+        }
+        this.minZoom = min;
+        this.maxZoom = max;
+        return this;
+    }
+
+    /**
+     * Sets the area to seed, in spherical mercator. Defaults to the whole world.
+     */
+    public TileSeeder bounds(Envelope bounds) {
+        this.bounds = bounds;
+        return this;
+    }
+
+    /**
+     * Sets the tile image format, and quality for the lossy formats.
+     */
+    public TileSeeder format(Format format, int quality) {
+        this.format = format;
+        this.quality = quality;
+        return this;
+    }
+
+    public TileSeeder format(Format format) {
+        return format(format, quality);
+    }
+
+    /**
+     * Sets the number of render threads, defaulting to the number of available processors.
+     */
+    public TileSeeder threads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * Sets the number of tiles along each side of the metatile block rendered in one pass.
+     * <p>
+     * See {@link MetaTiler} for details. A value of 1 disables metatiling.
+     * </p>
+     */
+    public TileSeeder metaSize(int metaSize) {
+        this.metaSize = Math.max(1, metaSize);
+        return this;
+    }
+
+    /**
+     * Renders and writes all missing tiles.
+     *
+     * @return The number of tiles written.
+     */
+    public long seed() throws IOException {
+        Envelope world = Proj.bounds(Proj.EPSG_900913);
+        Envelope area = bounds != null ? bounds.intersection(world) : world;
+
+        MBTileWriter writer = tiles.writer();
+        writer.metadata("format", format.ext);
+
+        ExecutorService exec = Executors.newFixedThreadPool(threads);
+        CompletionService<List<Tile>> results = new ExecutorCompletionService<List<Tile>>(exec);
+
+        // bound the number of encoded blocks waiting on the writer
+        int maxPending = threads * 2;
+        int pending = 0;
+        long written = 0;
+
+        final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+            @Override
+            protected Worker initialValue() {
+                return new Worker();
+            }
+        };
+
+        try {
+            for (int z = minZoom; z <= maxZoom; z++) {
+                int d = 1 << z;
+                double tw = world.getWidth() / d;
+                double th = world.getHeight() / d;
+
+                int x1 = clamp((int) Math.floor((area.getMinX() - world.getMinX()) / tw), d);
+                int x2 = clamp((int) Math.ceil((area.getMaxX() - world.getMinX()) / tw) - 1, d);
+                int y1 = clamp((int) Math.floor((area.getMinY() - world.getMinY()) / th), d);
+                int y2 = clamp((int) Math.ceil((area.getMaxY() - world.getMinY()) / th) - 1, d);
+
+                // blocks are aligned to multiples of the meta size, and no larger than the grid
+                final int m = Math.min(metaSize, d);
+
+                for (int bx = x1 - x1 % m; bx <= x2; bx += m) {
+                    for (int by = y1 - y1 % m; by <= y2; by += m) {
+                        // figure out which tiles in this block are missing
+                        final List<Tile> missing = new ArrayList<Tile>();
+                        for (int x = Math.max(bx, x1); x <= Math.min(bx + m - 1, x2); x++) {
+                            for (int y = Math.max(by, y1); y <= Math.min(by + m - 1, y2); y++) {
+                                if (!tiles.contains(z, x, y)) {
+                                    missing.add(new Tile(z, x, y, null, format.mimeType));
+                                }
+                            }
+                        }
+                        if (missing.isEmpty()) {
+                            continue;
+                        }
+
+                        final int bx0 = bx, by0 = by;
+                        final Envelope bb = new Envelope(
+                            world.getMinX() + bx * tw, world.getMinX() + (bx + m) * tw,
+                            world.getMinY() + by * th, world.getMinY() + (by + m) * th);
+
+                        results.submit(new Callable<List<Tile>>() {
+                            @Override
+                            public List<Tile> call() throws Exception {
+                                return workers.get().render(missing, bx0, by0, m, bb);
+                            }
+                        });
+
+                        if (++pending >= maxPending) {
+                            written += write(results.take(), writer);
+                            pending--;
+                        }
+                    }
+                }
+            }
+
+            while (pending > 0) {
+                written += write(results.take(), writer);
+                pending--;
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Seeding interrupted", e);
+        }
+        finally {
+            exec.shutdownNow();
+            writer.close();
+        }
+
+        return written;
+    }
+
+    int write(Future<List<Tile>> result, MBTileWriter writer)
+        throws IOException, InterruptedException {
+        try {
+            List<Tile> rendered = result.get();
+            for (Tile t : rendered) {
+                writer.put(t);
+            }
+            return rendered.size();
+        }
+        catch(ExecutionException e) {
+            throw new IOException("Error rendering tile", e.getCause());
+        }
+    }
+
+    int clamp(int i, int d) {
+        return Math.max(0, Math.min(d-1, i));
+    }
+
+    /**
+     * Per thread rendering state.
+     */
+    class Worker {
+        /** metatilers keyed by block size, smaller blocks are used at low zoom levels */
+        java.util.Map<Integer,MetaTiler> tilers = new HashMap<Integer, MetaTiler>();
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+
+        List<Tile> render(List<Tile> missing, int bx, int by, int m, Envelope bounds) {
+            MetaTiler tiler = tilers.get(m);
+            if (tiler == null) {
+                tiler = new MetaTiler(m, tileSize);
+                tilers.put(m, tiler);
+            }
+
+            Bitmap[][] imgs = tiler.render(map, bounds, Proj.EPSG_900913);
+            for (Tile t : missing) {
+                Bitmap img = imgs[t.getX() - bx][t.getY() - by];
+
+                bout.reset();
+                img.compress(format.compress, quality, bout);
+                t.setData(bout.toByteArray());
+            }
+
+            for (Bitmap[] col : imgs) {
+                for (Bitmap img : col) {
+                    img.recycle();
+                }
+            }
+
+            LOG.debug("Rendered " + missing.size() + " tiles at " + bounds);
+            return missing;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.jeo.android.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.jeo.geom.Geom;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class ClipperTest {
+
+    Clipper clipper;
+
+    @Before
+    public void setUp() {
+        clipper = new Clipper(new Envelope(0, 10, 0, 10));
+    }
+
+    @Test
+    public void testInside() {
+        LineString line = Geom.lineString(1,1, 9,9);
+        assertSame(line, clipper.clip(line));
+    }
+
+    @Test
+    public void testOutside() {
+        assertTrue(clipper.clip(Geom.lineString(11,11, 20,20)).isEmpty());
+    }
+
+    @Test
+    public void testLine() {
+        Geometry clipped = clipper.clip(Geom.lineString(-5,5, 15,5));
+        assertTrue(clipped instanceof LineString);
+        assertTrue(clipped.equalsExact(Geom.lineString(0,5, 10,5), 1e-9));
+    }
+
+    @Test
+    public void testLineMultipleParts() {
+        Geometry clipped = clipper.clip(Geom.lineString(-5,5, 5,5, 5,15, 8,15, 8,5, 15,5));
+        assertTrue(clipped instanceof MultiLineString);
+        assertEquals(2, clipped.getNumGeometries());
+        assertTrue(clipped.getGeometryN(0).equalsExact(Geom.lineString(0,5, 5,5, 5,10), 1e-9));
+        assertTrue(clipped.getGeometryN(1).equalsExact(
+            Geom.lineString(8,10, 8,5, 10,5), 1e-9));
+    }
+
+    @Test
+    public void testPolygon() throws Exception {
+        Polygon poly = (Polygon) new WKTReader().read(
+            "POLYGON((-5 -5, 5 -5, 5 5, -5 5, -5 -5))");
+
+        Geometry clipped = clipper.clip(poly);
+        assertTrue(clipped instanceof Polygon);
+        assertEquals(25, clipped.getArea(), 1e-9);
+        assertTrue(clipped.getEnvelopeInternal().equals(new Envelope(0, 5, 0, 5)));
+    }
+
+    @Test
+    public void testPolygonWithHole() throws Exception {
+        Polygon poly = (Polygon) new WKTReader().read(
+            "POLYGON((-5 -5, 15 -5, 15 15, -5 15, -5 -5), (2 2, 4 2, 4 4, 2 4, 2 2))");
+
+        Geometry clipped = clipper.clip(poly);
+        assertEquals(1, ((Polygon)clipped).getNumInteriorRing());
+        assertEquals(96, clipped.getArea(), 1e-9);
+    }
+}
@@ -0,0 +1,132 @@
+package org.jeo.android.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.jeo.feature.Feature;
+import org.jeo.feature.ListFeature;
+import org.jeo.feature.Schema;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Point;
+
+public class HitIndexTest {
+
+    HitIndex index;
+    Schema schema;
+
+    @Before
+    public void setUp() {
+        index = new HitIndex();
+        schema = Schema.build("test").field("geometry", Point.class).schema();
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(index.identify(10, 10, 0).isEmpty());
+
+        index.build(256, 256);
+        assertTrue(index.identify(10, 10, 0).isEmpty());
+    }
+
+    @Test
+    public void testTopmostFirst() {
+        Feature a = feature(), b = feature(), c = feature();
+        index.add(a, 0, 0, 20, 20);
+        index.add(b, 10, 10, 30, 30);
+        index.add(c, 100, 100, 110, 110);
+        index.build(256, 256);
+
+        List<Feature> hits = index.identify(15, 15, 0);
+        assertEquals(2, hits.size());
+        assertSame(b, hits.get(0));
+        assertSame(a, hits.get(1));
+
+        hits = index.identify(5, 5, 0);
+        assertEquals(1, hits.size());
+        assertSame(a, hits.get(0));
+    }
+
+    @Test
+    public void testSpanningCells() {
+        // spans many cells, the query tolerance spans many cells as well
+        Feature a = feature();
+        index.add(a, 0, 0, 200, 200);
+        index.build(256, 256);
+
+        List<Feature> hits = index.identify(64, 64, 40);
+        assertEquals(1, hits.size());
+        assertSame(a, hits.get(0));
+    }
+
+    @Test
+    public void testDrawnTwice() {
+        Feature a = feature(), b = feature();
+        index.add(a, 0, 0, 10, 10);
+        index.add(b, 0, 0, 10, 10);
+        index.add(a, 0, 0, 10, 10);
+        index.build(256, 256);
+
+        List<Feature> hits = index.identify(5, 5, 0);
+        assertEquals(2, hits.size());
+        assertSame(a, hits.get(0));
+        assertSame(b, hits.get(1));
+    }
+
+    @Test
+    public void testTolerance() {
+        Feature a = feature();
+        index.add(a, 40, 40, 50, 50);
+        index.build(256, 256);
+
+        assertTrue(index.identify(35, 35, 0).isEmpty());
+        assertTrue(index.identify(35, 35, 4).isEmpty());
+        assertEquals(1, index.identify(35, 35, 5).size());
+        assertEquals(1, index.identify(55, 45, 5).size());
+    }
+
+    @Test
+    public void testOffCanvas() {
+        // entries and queries past the edges of the canvas fall in the border cells
+        Feature a = feature();
+        index.add(a, -20, -20, -10, -10);
+        index.build(64, 64);
+
+        assertEquals(1, index.identify(-15, -15, 0).size());
+        assertTrue(index.identify(5, 5, 0).isEmpty());
+    }
+
+    @Test
+    public void testGrow() {
+        for (int i = 0; i < 1000; i++) {
+            index.add(feature(), i % 100, i / 10, i % 100 + 1, i / 10 + 1);
+        }
+        index.build(256, 256);
+
+        assertEquals(1000, index.size());
+        assertEquals(1, index.identify(0.5f, 0.5f, 0).size());
+    }
+
+    @Test
+    public void testClear() {
+        index.add(feature(), 0, 0, 10, 10);
+        index.build(256, 256);
+        index.clear();
+
+        assertEquals(0, index.size());
+        assertTrue(index.identify(5, 5, 0).isEmpty());
+
+        Feature a = feature();
+        index.add(a, 20, 20, 30, 30);
+        index.build(128, 128);
+        assertSame(a, index.identify(25, 25, 0).get(0));
+    }
+
+    Feature feature() {
+        return new ListFeature(null, null, schema);
+    }
+}
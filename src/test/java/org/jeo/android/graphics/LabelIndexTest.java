@@ -0,0 +1,79 @@
+package org.jeo.android.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LabelIndexTest {
+
+    @Test
+    public void testOverlaps() {
+        float[] a = box(0, 0, 10, 10);
+        assertTrue(LabelIndex.overlaps(a, 0, box(5, 5, 15, 15), 0));
+        assertTrue(LabelIndex.overlaps(box(5, 5, 15, 15), 0, a, 0));
+    }
+
+    @Test
+    public void testDisjoint() {
+        float[] a = box(0, 0, 10, 10);
+        assertFalse(LabelIndex.overlaps(a, 0, box(11, 0, 20, 10), 0));
+        assertFalse(LabelIndex.overlaps(a, 0, box(0, 11, 10, 20), 0));
+    }
+
+    @Test
+    public void testContains() {
+        assertTrue(LabelIndex.overlaps(box(0, 0, 10, 10), 0, box(4, 4, 6, 6), 0));
+        assertTrue(LabelIndex.overlaps(box(4, 4, 6, 6), 0, box(0, 0, 10, 10), 0));
+    }
+
+    @Test
+    public void testRotated() {
+        // diamond centered at 14,14, its envelope overlaps the box but the diamond does not
+        float[] d = diamond(14, 14, 5);
+        assertFalse(LabelIndex.overlaps(box(0, 0, 10, 10), 0, d, 0));
+        assertFalse(LabelIndex.overlaps(d, 0, box(0, 0, 10, 10), 0));
+
+        // move it in so its corner touches the box
+        d = diamond(12, 12, 5);
+        assertTrue(LabelIndex.overlaps(box(0, 0, 10, 10), 0, d, 0));
+    }
+
+    @Test
+    public void testOffset() {
+        // boxes packed in one array, eight values per box
+        float[] a = new float[16];
+        System.arraycopy(box(100, 100, 110, 110), 0, a, 0, 8);
+        System.arraycopy(box(0, 0, 10, 10), 0, a, 8, 8);
+
+        float[] b = box(5, 5, 15, 15);
+        assertFalse(LabelIndex.overlaps(a, 0, b, 0));
+        assertTrue(LabelIndex.overlaps(a, 8, b, 0));
+    }
+
+    @Test
+    public void testCell() {
+        LabelIndex index = new LabelIndex(64);
+        assertEquals(0, index.cell(0));
+        assertEquals(0, index.cell(63.9f));
+        assertEquals(1, index.cell(64));
+        assertEquals(-1, index.cell(-0.1f));
+        assertEquals(-2, index.cell(-65));
+    }
+
+    @Test
+    public void testKey() {
+        assertFalse(LabelIndex.key(1, -1).equals(LabelIndex.key(-1, 1)));
+        assertFalse(LabelIndex.key(0, -1).equals(LabelIndex.key(-1, -1)));
+        assertEquals(LabelIndex.key(-3, 7), LabelIndex.key(-3, 7));
+    }
+
+    float[] box(float x0, float y0, float x1, float y1) {
+        return new float[]{x0, y0, x1, y0, x1, y1, x0, y1};
+    }
+
+    float[] diamond(float x, float y, float r) {
+        return new float[]{x, y - r, x + r, y, x, y + r, x - r, y};
+    }
+}
@@ -1,7 +1,9 @@
 package org.jeo.android.graphics;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import org.jeo.geom.Geom;
 import org.junit.Test;
@@ -30,6 +32,51 @@ public class LineSamplerTest {
         //assertNull(sampler.sample(line.getLength()+10));
     }
 
+    @Test
+    public void testSampleAt() {
+        LineString line = Geom.lineString(0,0, 10,0, 10,10);
+
+        LineSampler sampler = new LineSampler(line);
+        assertEquals(20, sampler.getLength(), 1e-7);
+
+        Coordinate c = new Coordinate();
+        assertTrue(sampler.sample(15, c));
+        assertCoordinate(c, 10, 5);
+
+        assertTrue(sampler.sample(5, c));
+        assertCoordinate(c, 5, 0);
+
+        assertTrue(sampler.sample(10, c));
+        assertCoordinate(c, 10, 0);
+
+        assertFalse(sampler.sample(21, c));
+        assertFalse(sampler.sample(-1, c));
+    }
+
+    @Test
+    public void testReverse() {
+        LineString line = Geom.lineString(0,0, 10,0, 10,10);
+
+        LineSampler sampler = new LineSampler(line.getCoordinateSequence(), true);
+
+        Coordinate c = new Coordinate();
+        assertTrue(sampler.sample(0, c));
+        assertCoordinate(c, 10, 10);
+
+        assertTrue(sampler.sample(15, c));
+        assertCoordinate(c, 5, 0);
+    }
+
+    @Test
+    public void testFits() {
+        LineSampler sampler = new LineSampler(Geom.lineString(0,0, 10,0, 10,10));
+
+        assertTrue(sampler.fits(0, 20));
+        assertTrue(sampler.fits(5, 10));
+        assertFalse(sampler.fits(15, 10));
+        assertFalse(sampler.fits(-1, 5));
+    }
+
     void assertCoordinate(Coordinate c, double x, double y) {
         assertEquals(x, c.x, 0.1);
         assertEquals(y, c.y, 0.1);
@@ -0,0 +1,84 @@
+package org.jeo.android.graphics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.jeo.android.graphics.PointClusterer.Cluster;
+import org.jeo.android.graphics.PointClusterer.Level;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class PointClustererTest {
+
+    PointClusterer clusterer;
+
+    @Before
+    public void setUp() {
+        clusterer = new PointClusterer(1);
+
+        // cells of 4, 2, and 1 world units at zoom levels 0, 1, and 2
+        clusterer.res0 = 4;
+    }
+
+    @Test
+    public void testAdd() {
+        Level l = new Level(2, clusterer.cell(2), new Envelope(0, 4, 0, 4));
+        l.add(null, 0.25, 0.25);
+        l.add(null, 0.75, 0.75);
+        l.add(null, 1.5, 0.5);
+
+        assertEquals(2, l.clusters.size());
+
+        Cluster c = l.clusters.get(Level.key(0, 0));
+        assertEquals(2, c.count);
+        assertEquals(1, c.sumx, 1e-9);
+        assertEquals(1, c.sumy, 1e-9);
+
+        assertEquals(1, l.clusters.get(Level.key(1, 0)).count);
+    }
+
+    @Test
+    public void testMerge() {
+        Level l = new Level(2, clusterer.cell(2), new Envelope(-4, 4, -4, 4));
+        l.add(null, 0.5, 0.5);
+        l.add(null, 1.5, 0.5);
+        l.add(null, 2.5, 2.5);
+        l.add(null, 3.5, 3.5);
+        l.add(null, -0.5, -0.5);
+        l.add(null, -1.5, -1.5);
+        clusterer.levels.put(2, l);
+
+        Level m = clusterer.merge(1, new Envelope(-4, 4, -4, 4));
+        assertNotNull(m);
+        assertEquals(3, m.clusters.size());
+
+        assertEquals(2, m.clusters.get(Level.key(0, 0)).count);
+        assertEquals(2, m.clusters.get(Level.key(1, 1)).count);
+        assertEquals(2, m.clusters.get(Level.key(-1, -1)).count);
+
+        Cluster c = m.clusters.get(Level.key(1, 1));
+        assertEquals(6, c.sumx, 1e-9);
+        assertEquals(6, c.sumy, 1e-9);
+    }
+
+    @Test
+    public void testMergeOutsideFiner() {
+        Level l = new Level(2, clusterer.cell(2), new Envelope(0, 4, 0, 4));
+        l.add(null, 0.5, 0.5);
+        clusterer.levels.put(2, l);
+
+        assertNull(clusterer.merge(1, new Envelope(0, 8, 0, 8)));
+    }
+
+    @Test
+    public void testMergeNoFiner() {
+        Level l = new Level(1, clusterer.cell(1), new Envelope(0, 4, 0, 4));
+        l.add(null, 0.5, 0.5);
+        clusterer.levels.put(1, l);
+
+        assertNull(clusterer.merge(2, new Envelope(0, 4, 0, 4)));
+    }
+}
@@ -0,0 +1,48 @@
+package org.jeo.android.mbtiles;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.security.MessageDigest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MBTileWriterTest {
+
+    MessageDigest digest;
+
+    @Before
+    public void setUp() throws Exception {
+        digest = MessageDigest.getInstance("MD5");
+    }
+
+    @Test
+    public void testHash() {
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", MBTileWriter.hash(digest, new byte[0]));
+        assertEquals("900150983cd24fb0d6963f7d28e17f72",
+            MBTileWriter.hash(digest, "abc".getBytes()));
+    }
+
+    @Test
+    public void testHashSameContent() {
+        byte[] a = new byte[]{1, 2, 3, 4};
+        byte[] b = new byte[]{1, 2, 3, 4};
+        assertEquals(MBTileWriter.hash(digest, a), MBTileWriter.hash(digest, b));
+    }
+
+    @Test
+    public void testHashDifferentContent() {
+        byte[] a = new byte[]{1, 2, 3, 4};
+        byte[] b = new byte[]{1, 2, 3, 5};
+        assertFalse(MBTileWriter.hash(digest, a).equals(MBTileWriter.hash(digest, b)));
+    }
+
+    @Test
+    public void testHashLeadingZeros() {
+        // every byte is encoded as two hex digits
+        for (int i = 0; i < 64; i++) {
+            assertEquals(32, MBTileWriter.hash(digest, new byte[]{(byte) i}).length());
+        }
+    }
+}